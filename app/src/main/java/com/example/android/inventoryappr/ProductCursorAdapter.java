@@ -1,53 +1,108 @@
 package com.example.android.inventoryappr;
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.graphics.drawable.GradientDrawable;
-import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryappr.core.QuantityBuckets;
+import com.example.android.inventoryappr.data.ProductCommandExecutor;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_SOLD;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
-import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
 
 /**
- * {@link ProductCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of product data as its data source. This adapter knows
+ * {@link ProductCursorAdapter} is an adapter for a {@link RecyclerView}
+ * that uses the page cursors of a {@link ProductPagedList} as its data source. This adapter knows
  * how to create list items for each row of product data in the {@link Cursor}.
+ * The {@link ProductPagedList} reports only the rows that have changed, so only those rows are
+ * rebound when the data changes.
  */
-public class ProductCursorAdapter extends CursorAdapter {
+public class ProductCursorAdapter extends RecyclerView.Adapter<ProductCursorAdapter.ViewHolder> {
 
     /* Tag for the log messages */
     private static final String LOG_TAG = ProductCursorAdapter.class.getSimpleName();
 
+    private final Context context;
+
+    /* Runs the sales off the main thread */
+    private final ProductCommandExecutor commandExecutor;
+
+    /* Receives the clicks on the list items */
+    private final OnProductClickListener onProductClickListener;
+
+    /* The list from which to get the data */
+    private ProductPagedList productPagedList;
+
+    /* The quantity pane colors, by quantity bucket */
+    private final int[] quantityColors;
+
+    /* Sells the product of the ViewHolder set as the tag of the clicked button */
+    private final View.OnClickListener sellClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            sellProduct((ViewHolder) v.getTag());
+        }
+    };
+
+    /* The cursor of the last bound row and the indexes of its columns */
+    private Cursor indexedCursor;
+    private int idColumnIndex;
+    private int nameColumnIndex;
+    private int priceColumnIndex;
+    private int quantityColumnIndex;
+    private int stockBucketColumnIndex;
+
     /**
      * Constructs a new {@link ProductCursorAdapter}.
      *
-     * @param context The context
-     * @param cursor       The cursor from which to get the data.
+     * @param context                The context
+     * @param onProductClickListener Receives the clicks on the list items.
+     */
+    public ProductCursorAdapter(Context context, OnProductClickListener onProductClickListener) {
+        this.context = context;
+        this.onProductClickListener = onProductClickListener;
+        commandExecutor = new ProductCommandExecutor(context);
+        quantityColors = getQuantityColors(context);
+        // Item IDs are the product IDs from the "_id" column
+        setHasStableIds(true);
+    }
+
+    /**
+     * Listener interface for the clicks on the list items.
      */
-    public ProductCursorAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0 /* flags */);
+    public interface OnProductClickListener {
+
+        /**
+         * Callback. When a product from the list is clicked.
+         *
+         * @param productId ID of the clicked product.
+         */
+        public void onProductClick(long productId);
     }
 
     /**
      * ViewHolder helps reduce findViewById() operations in the Adapter.
      */
-    static class ViewHolder {
+    static class ViewHolder extends RecyclerView.ViewHolder {
         // Find all the views in the list_item.xml which we need to populate with the new data
         // and bind the reference on these views to the viewHolder
         @BindView(R.id.product_name) TextView productNameView;
@@ -55,141 +110,214 @@ public class ProductCursorAdapter extends CursorAdapter {
         @BindView(R.id.quantity) TextView quantityView;
         @BindView(R.id.sell_product_btn) Button sellButton;
 
-        public ViewHolder(View convertView) {
-            ButterKnife.bind(this,convertView);
+        // Hold the text shown by the views, reused by every bind
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(64);
+        final CharArrayBuffer priceBuffer = new CharArrayBuffer(16);
+        final CharArrayBuffer quantityBuffer = new CharArrayBuffer(16);
+
+        // The displayed product, negative for a placeholder
+        long productId = -1;
+
+        // The color of the quantity pane, once set
+        int quantityColor;
+        boolean hasQuantityColor;
+
+        public ViewHolder(View itemView) {
+            super(itemView);
+            ButterKnife.bind(this, itemView);
         }
     }
 
     /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     * Set the list from which to get the data.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param newProductPagedList The new list to be used, or null to clear the list.
      */
+    public void setPagedList(ProductPagedList newProductPagedList) {
+        productPagedList = newProductPagedList;
+        notifyDataSetChanged();
+    }
+
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        View newView = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
-        // Bind the reference on newView's child views to the viewHolder
-        ViewHolder viewHolder = new ViewHolder(newView);
-        newView.setTag(viewHolder);
-        return newView;
+    public int getItemCount() {
+        return productPagedList == null ? 0 : productPagedList.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return productPagedList.getId(position);
     }
 
     /**
-     * Populates list item view (returned from newView()) with product data (extracted from the cursor).
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view
+     * @return the ViewHolder of the newly created list item view.
      */
+    @NonNull
     @Override
-    public void bindView(View view, final Context context, Cursor cursor) {
-        // Extract properties from the cursor
-        String productName = cursor.getString(cursor.getColumnIndex(COLUMN_PROD_NAME));
-        String priceString = cursor.getString(cursor.getColumnIndex(COLUMN_PROD_PRICE));
-        String quantityString = cursor.getString(cursor.getColumnIndex(COLUMN_PROD_QUANTITY));
-        Integer productId = cursor.getInt(cursor.getColumnIndex(COLUMN_PROD_ID));
-
-        // Get the ViewHolder object associated with this view that holds references to its child views
-        ViewHolder viewHolder = (ViewHolder) view.getTag();
-
-        // Use the ViewHolder to populate the child views with the extracted properties
-        viewHolder.productNameView.setText(productName);
-        viewHolder.priceView.setText(priceString);
-        viewHolder.quantityView.setText(quantityString);
-
-        // Set the proper background color on the quantity pane
-        GradientDrawable quantityPane = (GradientDrawable) viewHolder.quantityView.getBackground();
-        quantityPane.setColor(getQuantityColor(context, quantityString));
-
-        // Set productId Integer object as a Tag on the button to use it when needed
-        viewHolder.sellButton.setTag(productId);
-        // Set ClickListener to perform product sales from the list view
-        viewHolder.sellButton.setOnClickListener(new View.OnClickListener() {
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View newView = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        // Bind the reference on newView's child views to the viewHolder
+        final ViewHolder viewHolder = new ViewHolder(newView);
+        newView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                // Get the current product quantity
-                View listItem = (View) v.getParent();
-                TextView quantityView = listItem.findViewById(R.id.quantity);
-                int quantityInt = Integer.parseInt(quantityView.getText().toString());
-                // Check for valid quantity
-                if (quantityInt == 0) {
-                    Toast.makeText(context, R.string.toast_no_products_for_sale, Toast.LENGTH_LONG).show();
-                    return;
-                }
-                int newQuantity = quantityInt - 1;
-                ContentValues values = new ContentValues();
-                values.put(COLUMN_PROD_QUANTITY, newQuantity);
-
-                // Get the product URI
-                Integer currentProductId = (Integer) v.getTag();
-                Uri currentProductUri = ContentUris.withAppendedId(CONTENT_URI, currentProductId);
-
-                // Update database for the product URI
-                int rowsUpdated = context.getContentResolver().update(currentProductUri,
-                        values,
-                        null,
-                        null);
-                Log.d(LOG_TAG, "TEST: sellProductButton. The number of updated rows is " + rowsUpdated);
-                switch (rowsUpdated) {
-                    // Show a toast message depending on whether or not the updating was successful
-                    case 1:
-                        // Success
-                        Toast.makeText(context, R.string.toast_sale_success, Toast.LENGTH_LONG).show();
-                        quantityView.setText(String.valueOf(newQuantity));
-                        break;
-                    case 0:
-                        // Fail
-                        Toast.makeText(context, R.string.toast_sale_failed, Toast.LENGTH_LONG).show();
-                        break;
-                    default:
-                        // Unexpected behavior
-                        // return value shouldn't be more than 1 because we update only one product at a time
-                        Toast.makeText(context, R.string.toast_sale_error, Toast.LENGTH_LONG).show();
-                        Log.e(LOG_TAG, "Error selling product");
+                // The item ID is the row ID in the table, that is _id. Placeholders have negative IDs
+                if (viewHolder.getAdapterPosition() != RecyclerView.NO_POSITION && viewHolder.getItemId() >= 0) {
+                    onProductClickListener.onProductClick(viewHolder.getItemId());
                 }
             }
         });
+        // The pane of each item gets its own color
+        viewHolder.quantityView.getBackground().mutate();
+        // All the sell buttons share the listener, which finds the product in the ViewHolder
+        viewHolder.sellButton.setTag(viewHolder);
+        viewHolder.sellButton.setOnClickListener(sellClickListener);
+        return viewHolder;
+    }
+
+    /**
+     * Populates list item view with product data (extracted from the cursor).
+     *
+     * @param viewHolder The ViewHolder of the list item view
+     * @param position   The position of the product row in the list
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
+        Cursor cursor = productPagedList.getRow(position);
+        if (cursor == null) {
+            // The page of this row is still loading, show a blank placeholder until it's ready
+            bindPlaceholder(viewHolder);
+            return;
+        }
+        bindView(viewHolder, cursor);
+    }
+
+    /**
+     * Clears list item view while its product data is loading.
+     *
+     * @param viewHolder The ViewHolder of the list item view
+     */
+    private void bindPlaceholder(ViewHolder viewHolder) {
+        viewHolder.productNameView.setText("");
+        viewHolder.priceView.setText("");
+        viewHolder.quantityView.setText("");
+        viewHolder.productId = -1;
+    }
+
+    /**
+     * Populates list item view with product data (extracted from the cursor). The text is copied
+     * into the buffers of the ViewHolder and the listener is shared, so binding a row allocates nothing.
+     *
+     * @param viewHolder The ViewHolder of the list item view
+     * @param cursor     The cursor from which to get the data. The cursor is already moved to the
+     *                   correct row.
+     */
+    private void bindView(ViewHolder viewHolder, Cursor cursor) {
+        if (cursor != indexedCursor) {
+            // The column indexes are looked up once per cursor
+            indexedCursor = cursor;
+            idColumnIndex = cursor.getColumnIndex(COLUMN_PROD_ID);
+            nameColumnIndex = cursor.getColumnIndex(COLUMN_PROD_NAME);
+            priceColumnIndex = cursor.getColumnIndex(COLUMN_PROD_PRICE);
+            quantityColumnIndex = cursor.getColumnIndex(COLUMN_PROD_QUANTITY);
+            stockBucketColumnIndex = cursor.getColumnIndex(COLUMN_STOCK_BUCKET);
+        }
+
+        // Use the ViewHolder to populate the child views with the properties from the cursor
+        setText(viewHolder.productNameView, cursor, nameColumnIndex, viewHolder.nameBuffer);
+        setText(viewHolder.priceView, cursor, priceColumnIndex, viewHolder.priceBuffer);
+        setText(viewHolder.quantityView, cursor, quantityColumnIndex, viewHolder.quantityBuffer);
+
+        // Set the proper background color on the quantity pane, the bucket comes from the database
+        setQuantityColor(viewHolder, quantityColors[cursor.getInt(stockBucketColumnIndex)]);
+
+        // The sell button finds the product to sell in its ViewHolder
+        viewHolder.productId = cursor.getLong(idColumnIndex);
+    }
+
+    /**
+     * Show the text of a cursor column, copied into a buffer of the ViewHolder. The TextView keeps
+     * using the buffer array, so each TextView needs a buffer of its own.
+     */
+    private static void setText(TextView textView, Cursor cursor, int columnIndex, CharArrayBuffer buffer) {
+        cursor.copyStringToBuffer(columnIndex, buffer);
+        textView.setText(buffer.data, 0, buffer.sizeCopied);
+    }
+
+    /**
+     * Set the background color of the quantity pane, if it's not set already.
+     */
+    private static void setQuantityColor(ViewHolder viewHolder, int quantityColor) {
+        if (!viewHolder.hasQuantityColor || viewHolder.quantityColor != quantityColor) {
+            GradientDrawable quantityPane = (GradientDrawable) viewHolder.quantityView.getBackground();
+            quantityPane.setColor(quantityColor);
+            viewHolder.quantityColor = quantityColor;
+            viewHolder.hasQuantityColor = true;
+        }
+    }
+
+    /**
+     * Sell one item of the product of the ViewHolder in the background, the provider decreases
+     * the quantity atomically. The row shows the new quantity right away, the list is refreshed
+     * when the provider writes the buffered sales.
+     */
+    private void sellProduct(final ViewHolder viewHolder) {
+        final long productId = viewHolder.productId;
+        if (productId < 0) {
+            // The row is a placeholder
+            return;
+        }
+        commandExecutor.sell(productId, 1,
+                new ProductCommandExecutor.OnCommandCompleteListener<Bundle>() {
+                    @Override
+                    public void onCommandComplete(Bundle result) {
+                        if (result == null) {
+                            // Unexpected behavior
+                            Toast.makeText(context, R.string.toast_sale_error, Toast.LENGTH_LONG).show();
+                            Log.e(LOG_TAG, "Error selling product");
+                            return;
+                        }
+                        Log.d(LOG_TAG, "TEST: sellProductButton. The product sold is " + result.getBoolean(EXTRA_SOLD));
+                        if (result.getBoolean(EXTRA_SOLD)) {
+                            // Success. Show the new quantity if the row still displays this product
+                            Toast.makeText(context, R.string.toast_sale_success, Toast.LENGTH_LONG).show();
+                            if (viewHolder.productId == productId) {
+                                viewHolder.quantityView.setText(String.valueOf(result.getInt(EXTRA_QUANTITY)));
+                            }
+                        } else if (result.containsKey(EXTRA_QUANTITY)) {
+                            // The product exists but there is nothing left to sell
+                            Toast.makeText(context, R.string.toast_no_products_for_sale, Toast.LENGTH_LONG).show();
+                        } else {
+                            // Fail
+                            Toast.makeText(context, R.string.toast_sale_failed, Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
     }
 
     /**
-     * Return color according to quantity.
+     * Return the quantity pane colors, indexed by the {@link QuantityBuckets} of the quantity.
      *
      * @param context Context to reach the resources.
-     * @param quantityString The product quantity as a string.
-     * @return Color object.
+     * @return the color of each bucket.
      */
-    private int getQuantityColor(Context context, String quantityString) {
-        int quantityColorResourceId;
-        int quantityRange = quantityString.length();
-        switch (quantityRange) {
-            case 0:
-            case 1:
-                quantityColorResourceId = R.color.quantityTo10;
-                break;
-            case 2:
-                quantityColorResourceId = R.color.quantityTo100;
-                break;
-            case 3:
-                quantityColorResourceId = R.color.quantityTo1k;
-                break;
-            case 4:
-                quantityColorResourceId = R.color.quantityTo10k;
-                break;
-            case 5:
-                quantityColorResourceId = R.color.quantityTo100k;
-                break;
-            case 6:
-                quantityColorResourceId = R.color.quantityTo1m;
-                break;
-            default:
-                quantityColorResourceId = R.color.colorPrimary;
+    private static int[] getQuantityColors(Context context) {
+        int[] quantityColorResourceIds = new int[QuantityBuckets.BUCKET_COUNT];
+        quantityColorResourceIds[QuantityBuckets.BUCKET_TO_10] = R.color.quantityTo10;
+        quantityColorResourceIds[QuantityBuckets.BUCKET_TO_100] = R.color.quantityTo100;
+        quantityColorResourceIds[QuantityBuckets.BUCKET_TO_1K] = R.color.quantityTo1k;
+        quantityColorResourceIds[QuantityBuckets.BUCKET_TO_10K] = R.color.quantityTo10k;
+        quantityColorResourceIds[QuantityBuckets.BUCKET_TO_100K] = R.color.quantityTo100k;
+        quantityColorResourceIds[QuantityBuckets.BUCKET_TO_1M] = R.color.quantityTo1m;
+        quantityColorResourceIds[QuantityBuckets.BUCKET_OTHER] = R.color.colorPrimary;
+        // Get color objects from the resource IDs
+        int[] quantityColors = new int[QuantityBuckets.BUCKET_COUNT];
+        for (int bucket = 0; bucket < QuantityBuckets.BUCKET_COUNT; bucket++) {
+            quantityColors[bucket] = context.getResources().getColor(quantityColorResourceIds[bucket]);
         }
-        // Get color object from the resource ID and return it
-        return context.getResources().getColor(quantityColorResourceId);
+        return quantityColors;
     }
 }
@@ -0,0 +1,684 @@
+package com.example.android.inventoryappr;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.support.v7.util.ListUpdateCallback;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.example.android.inventoryappr.data.ProductContract.CHANGE_UPDATE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.getSortKeyColumns;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_AFTER_ID;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_AFTER_KEY;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_CHANGE;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_LIMIT;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_SORT;
+
+/**
+ * {@link ProductPagedList} is the data source of the product list. Instead of loading the whole
+ * products table, it loads pages of {@link #PAGE_SIZE} products on demand through the keyset
+ * paginated queries of the provider, and prefetches the next page while the user scrolls towards
+ * the end of the loaded rows. Only the last {@link #MAX_CACHED_PAGES} used pages are kept, so the
+ * memory use doesn't depend on the size of the table.
+ * <p>
+ * Each page starts after the key of the last product of the previous page: its ID, preceded by the
+ * values of its sort key columns when the products are sorted by
+ * {@link com.example.android.inventoryappr.data.ProductContract#QUERY_PARAMETER_SORT}. The keys
+ * are kept when the pages are evicted or reloaded, so a page is never looked up by its offset,
+ * which would cost time linear in the offset. Reloaded pages that follow each other are chained
+ * by their new keys, and a page that no longer ends where the next loaded page starts makes the
+ * loaded pages reload along that chain.
+ * <p>
+ * When a single product is updated, only its row is reloaded and patched into its page, so
+ * frequent sales don't reload the whole list. In a sorted list an update that changes the sort
+ * key of the product may move it, so the loaded pages are reloaded instead.
+ * <p>
+ * All the public methods must be called on the main thread. The changes of the list are reported
+ * to the {@link ListUpdateCallback} given to the constructor.
+ */
+public class ProductPagedList {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = ProductPagedList.class.getSimpleName();
+
+    /* Number of products in a page */
+    public static final int PAGE_SIZE = 50;
+
+    /* The next page is loaded when the user is this close to the end of the loaded rows */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /* Maximum number of pages kept in memory */
+    private static final int MAX_CACHED_PAGES = 8;
+
+    /* The key of the pages past the end of the table, which have no rows */
+    private static final String[] PAST_END_KEY = new String[0];
+
+    /* Background thread for the page queries, shared by all the instances */
+    private static final ExecutorService PAGE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ContentResolver contentResolver;
+    private final Uri contentUri;
+    private final String[] projection;
+    private final ListUpdateCallback listUpdateCallback;
+
+    /* The columns the products are sorted by before their IDs, empty when sorted by ID only */
+    private final String[] sortKeyColumns;
+    /* The columns of a page key: the sort key columns and the ID */
+    private final String[] keyProjection;
+
+    /* The loaded pages by page index. Evicted pages are closed */
+    private final LruCache<Integer, Page> pages = new LruCache<Integer, Page>(MAX_CACHED_PAGES) {
+        @Override
+        protected void entryRemoved(boolean evicted, Integer pageIndex, Page oldPage, Page newPage) {
+            if (oldPage != newPage) {
+                oldPage.close();
+            }
+        }
+    };
+
+    /* The key after which each page starts, known for every page up to the end of the list so far */
+    private final SparseArray<String[]> pageKeys = new SparseArray<>();
+
+    /* The indexes of the pages being loaded */
+    private final Set<Integer> pagesLoading = new HashSet<>();
+
+    /* The indexes of the pages requested while a refresh was running, loaded after it */
+    private final Set<Integer> pagesRequestedDuringRefresh = new HashSet<>();
+
+    /* Patches the updated row, or refreshes the loaded pages when the products change otherwise */
+    private final ContentObserver contentObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            refresh();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri != null && CHANGE_UPDATE.equals(uri.getQueryParameter(QUERY_PARAMETER_CHANGE))) {
+                patchRow(ContentUris.parseId(uri));
+            } else {
+                refresh();
+            }
+        }
+    };
+
+    /* The number of rows in the list so far */
+    private int rowCount;
+    /* Whether the last page of the table has been loaded */
+    private boolean endReached;
+    /* Incremented on every refresh, so results of outdated loads are dropped */
+    private int generation;
+    /* Whether a refresh is running, and whether another one was requested meanwhile */
+    private boolean refreshing;
+    private boolean refreshPending;
+    private boolean closed;
+
+    /**
+     * Constructs a new {@link ProductPagedList}.
+     *
+     * @param context            The context
+     * @param contentUri         The products to load, either the products content URI or a search URI,
+     *                           optionally with filter and sort query parameters.
+     * @param projection         The columns to load. It must include the "_id" column and the
+     *                           sort key columns of the sort query parameter.
+     * @param listUpdateCallback Receives the changes of the list.
+     */
+    public ProductPagedList(Context context, Uri contentUri, String[] projection, ListUpdateCallback listUpdateCallback) {
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.contentUri = contentUri;
+        this.projection = projection;
+        this.listUpdateCallback = listUpdateCallback;
+        this.sortKeyColumns = getSortKeyColumns(contentUri.getQueryParameter(QUERY_PARAMETER_SORT));
+        this.keyProjection = Arrays.copyOf(sortKeyColumns, sortKeyColumns.length + 1);
+        keyProjection[sortKeyColumns.length] = COLUMN_PROD_ID;
+    }
+
+    /**
+     * A loaded page: the cursor with its rows and the snapshot of the rows. Rows updated after
+     * the page was loaded are kept in their own single row cursors.
+     */
+    private static class Page {
+        final Cursor cursor;
+        ProductSnapshot snapshot;
+        /* The updated rows by position in the page */
+        final SparseArray<Cursor> patchedRows = new SparseArray<>();
+
+        Page(Cursor cursor, ProductSnapshot snapshot) {
+            this.cursor = cursor;
+            this.snapshot = snapshot;
+        }
+
+        int size() {
+            return snapshot.size();
+        }
+
+        /**
+         * Return the cursor moved to the row at the given position, or null if there is no such row.
+         */
+        Cursor moveToRow(int pagePosition) {
+            if (pagePosition >= size()) {
+                return null;
+            }
+            Cursor patchedRow = patchedRows.get(pagePosition);
+            if (patchedRow != null) {
+                return patchedRow.moveToFirst() ? patchedRow : null;
+            }
+            return cursor.moveToPosition(pagePosition) ? cursor : null;
+        }
+
+        /**
+         * Replace the row at the given position with the single row of the given cursor.
+         */
+        void patchRow(int pagePosition, Cursor rowCursor, ProductSnapshot rowSnapshot) {
+            Cursor oldPatchedRow = patchedRows.get(pagePosition);
+            if (oldPatchedRow != null) {
+                oldPatchedRow.close();
+            }
+            patchedRows.put(pagePosition, rowCursor);
+            snapshot = snapshot.withRow(pagePosition, rowSnapshot, 0);
+        }
+
+        void close() {
+            cursor.close();
+            for (int i = 0; i < patchedRows.size(); i++) {
+                patchedRows.valueAt(i).close();
+            }
+            patchedRows.clear();
+        }
+    }
+
+    /**
+     * Start loading the first page and watching the products for changes.
+     */
+    public void start() {
+        contentResolver.registerContentObserver(CONTENT_URI, true, contentObserver);
+        loadPage(0);
+    }
+
+    /**
+     * Stop watching the products and release all the loaded pages.
+     */
+    public void close() {
+        closed = true;
+        generation++;
+        contentResolver.unregisterContentObserver(contentObserver);
+        pages.evictAll();
+    }
+
+    /**
+     * @return the number of rows in the list so far. It grows as more pages are loaded.
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * Return the cursor moved to the row at the given position. When the position gets close to
+     * the end of the loaded rows, the next page is prefetched.
+     *
+     * @param position The row position.
+     * @return the cursor, or null if the page of the row isn't loaded yet. The page is then
+     * loaded and the row is reported as changed when it's ready.
+     */
+    @Nullable
+    public Cursor getRow(int position) {
+        // Prefetch the next page before the user gets to the end of the list
+        if (!endReached && position >= rowCount - PREFETCH_DISTANCE) {
+            loadPage(rowCount / PAGE_SIZE);
+        }
+        int pageIndex = position / PAGE_SIZE;
+        Page page = pages.get(pageIndex);
+        if (page == null) {
+            loadPage(pageIndex);
+            return null;
+        }
+        return page.moveToRow(position % PAGE_SIZE);
+    }
+
+    /**
+     * Return the product ID of the row at the given position.
+     *
+     * @param position The row position.
+     * @return the product ID, or a negative placeholder ID unique to the position
+     * if the page of the row isn't loaded.
+     */
+    public long getId(int position) {
+        Page page = pages.get(position / PAGE_SIZE);
+        int pagePosition = position % PAGE_SIZE;
+        if (page == null || pagePosition >= page.size()) {
+            return -position - 2;
+        }
+        return page.snapshot.getId(pagePosition);
+    }
+
+    /**
+     * Load the page with the given index in the background, unless it's loaded or being loaded.
+     */
+    private void loadPage(final int pageIndex) {
+        if (closed || pagesLoading.contains(pageIndex) || pages.get(pageIndex) != null) {
+            return;
+        }
+        if (refreshing) {
+            // The pages are about to be replaced, load it with the new keys afterwards
+            pagesRequestedDuringRefresh.add(pageIndex);
+            return;
+        }
+        final String[] afterKey = pageKeys.get(pageIndex);
+        if (afterKey == null && pageIndex > 0) {
+            // Pages are loaded in order from the first one, so this can't happen
+            Log.e(LOG_TAG, "No key of page " + pageIndex);
+            return;
+        }
+        pagesLoading.add(pageIndex);
+        final int loadGeneration = generation;
+        PAGE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Page page = queryPage(afterKey);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(pageIndex, afterKey, page, loadGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Put the loaded page into the list. Called on the main thread.
+     *
+     * @param page The loaded page, or null if the query failed.
+     */
+    private void onPageLoaded(int pageIndex, String[] afterKey, @Nullable Page page, int loadGeneration) {
+        if (loadGeneration != generation) {
+            // The list has been refreshed or closed since the load started
+            if (page != null) {
+                page.close();
+            }
+            return;
+        }
+        pagesLoading.remove(pageIndex);
+        if (page == null) {
+            // Drop the load, the page is loaded again when one of its rows is shown
+            Log.e(LOG_TAG, "Error loading page " + pageIndex);
+            return;
+        }
+        pages.put(pageIndex, page);
+        String[] oldNextKey = pageKeys.get(pageIndex + 1);
+        rememberPageKeys(pageIndex, afterKey, page);
+
+        int pageStart = pageIndex * PAGE_SIZE;
+        int pageEnd = pageStart + page.size();
+        if (pageEnd > rowCount) {
+            // The page extends the list
+            if (rowCount > pageStart) {
+                listUpdateCallback.onChanged(pageStart, rowCount - pageStart, null);
+            }
+            int oldRowCount = rowCount;
+            rowCount = pageEnd;
+            listUpdateCallback.onInserted(oldRowCount, pageEnd - oldRowCount);
+        } else if (page.size() > 0) {
+            // The page replaces placeholders
+            listUpdateCallback.onChanged(pageStart, page.size(), null);
+        }
+        if (page.size() < PAGE_SIZE) {
+            // This is the last page of the table
+            endReached = true;
+            if (rowCount > pageEnd) {
+                listUpdateCallback.onRemoved(pageEnd, rowCount - pageEnd);
+                rowCount = pageEnd;
+            }
+        }
+        Log.d(LOG_TAG, "TEST: Loaded page " + pageIndex + " with " + page.size() + " rows");
+        if (pages.get(pageIndex + 1) != null
+                && (page.size() < PAGE_SIZE || !Arrays.equals(oldNextKey, pageKeys.get(pageIndex + 1)))) {
+            // The products have changed since the next page was loaded, so it doesn't start
+            // where this page ends. Reloading chains the loaded pages again.
+            refresh();
+        }
+    }
+
+    /**
+     * Reload the pages that are in memory after the products have changed, and report
+     * only the rows that are actually different. Each reloaded page starts after the new key of
+     * the page before it, if that page is loaded too, and otherwise after its own known key.
+     */
+    private void refresh() {
+        if (closed) {
+            return;
+        }
+        if (refreshing) {
+            refreshPending = true;
+            return;
+        }
+        refreshing = true;
+        // Drop the loads in progress, they may be outdated
+        generation++;
+        pagesLoading.clear();
+        final int refreshGeneration = generation;
+        final Integer[] pageIndexes = pages.snapshot().keySet().toArray(new Integer[0]);
+        Arrays.sort(pageIndexes);
+        final SparseArray<String[]> oldKeys = pageKeys.clone();
+        PAGE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SparseArray<Page> newPages = new SparseArray<>();
+                final SparseArray<String[]> newKeys = new SparseArray<>();
+                String[] nextKey = null;
+                for (int pageIndex : pageIndexes) {
+                    String[] afterKey = newPages.get(pageIndex - 1) != null ? nextKey : oldKeys.get(pageIndex);
+                    Page page = queryPage(afterKey);
+                    if (page == null) {
+                        // Drop the refresh, the pages on the screen are kept
+                        for (int i = 0; i < newPages.size(); i++) {
+                            newPages.valueAt(i).close();
+                        }
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onRefreshFailed(refreshGeneration);
+                            }
+                        });
+                        return;
+                    }
+                    newKeys.put(pageIndex, afterKey);
+                    newPages.put(pageIndex, page);
+                    if (page.size() == PAGE_SIZE) {
+                        page.cursor.moveToPosition(PAGE_SIZE - 1);
+                        nextKey = readKey(page.cursor);
+                    } else {
+                        // The table ends in this page
+                        nextKey = PAST_END_KEY;
+                    }
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRefreshed(newPages, newKeys, refreshGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Give up a refresh that couldn't query the pages. Called on the main thread.
+     */
+    private void onRefreshFailed(int refreshGeneration) {
+        refreshing = false;
+        if (refreshGeneration != generation) {
+            // The list has been closed meanwhile
+            return;
+        }
+        Log.e(LOG_TAG, "Error refreshing the pages");
+        // The loads dropped by the refresh are requested again when their rows are shown
+        for (Integer pageIndex : pagesRequestedDuringRefresh) {
+            loadPage(pageIndex);
+        }
+        pagesRequestedDuringRefresh.clear();
+        if (refreshPending) {
+            refreshPending = false;
+            refresh();
+        }
+    }
+
+    /**
+     * Swap the reloaded pages in. Called on the main thread.
+     */
+    private void onRefreshed(SparseArray<Page> newPages, SparseArray<String[]> newKeys, int refreshGeneration) {
+        refreshing = false;
+        if (refreshGeneration != generation) {
+            // The list has been closed meanwhile
+            for (int i = 0; i < newPages.size(); i++) {
+                newPages.valueAt(i).close();
+            }
+            return;
+        }
+
+        // Work out the new number of rows. A short page is the new end of the table.
+        int newRowCount = rowCount;
+        boolean newEndReached = false;
+        int tailPageIndex = rowCount == 0 ? 0 : (rowCount - 1) / PAGE_SIZE;
+        for (int i = 0; i < newPages.size(); i++) {
+            int pageIndex = newPages.keyAt(i);
+            Page page = newPages.valueAt(i);
+            if (page.size() < PAGE_SIZE) {
+                newRowCount = pageIndex * PAGE_SIZE + page.size();
+                newEndReached = true;
+                break;
+            }
+            if (pageIndex == tailPageIndex) {
+                // The last loaded page is full now, so there may be more rows after it
+                newRowCount = (pageIndex + 1) * PAGE_SIZE;
+            }
+        }
+
+        // Report the rows that are different from the ones on the screen
+        for (int i = 0; i < newPages.size(); i++) {
+            int pageIndex = newPages.keyAt(i);
+            Page newPage = newPages.valueAt(i);
+            Page oldPage = pages.get(pageIndex);
+            int pageStart = pageIndex * PAGE_SIZE;
+            if (oldPage == null) {
+                continue;
+            }
+            int rowsToCompare = Math.min(newRowCount - pageStart, Math.max(newPage.size(), oldPage.size()));
+            for (int pagePosition = 0; pagePosition < rowsToCompare; pagePosition++) {
+                if (pagePosition >= newPage.size() || pagePosition >= oldPage.size()
+                        || !oldPage.snapshot.isSameRow(pagePosition, newPage.snapshot, pagePosition)) {
+                    if (pageStart + pagePosition < rowCount) {
+                        listUpdateCallback.onChanged(pageStart + pagePosition, 1, null);
+                    }
+                }
+            }
+        }
+
+        // Replace the pages and their keys. The keys of the other pages are kept, except past the end
+        pages.evictAll();
+        for (int i = pageKeys.size() - 1; i >= 0; i--) {
+            if (pageKeys.keyAt(i) * PAGE_SIZE > newRowCount) {
+                pageKeys.removeAt(i);
+            }
+        }
+        for (int i = 0; i < newPages.size(); i++) {
+            int pageIndex = newPages.keyAt(i);
+            Page page = newPages.valueAt(i);
+            if (pageIndex * PAGE_SIZE < newRowCount || pageIndex == 0) {
+                pages.put(pageIndex, page);
+                rememberPageKeys(pageIndex, newKeys.get(pageIndex), page);
+            } else {
+                page.close();
+            }
+        }
+
+        if (newRowCount > rowCount) {
+            listUpdateCallback.onInserted(rowCount, newRowCount - rowCount);
+        } else if (newRowCount < rowCount) {
+            listUpdateCallback.onRemoved(newRowCount, rowCount - newRowCount);
+        }
+        rowCount = newRowCount;
+        endReached = newEndReached;
+
+        // Load the pages the user has scrolled to meanwhile
+        for (Integer pageIndex : pagesRequestedDuringRefresh) {
+            if (pageIndex * PAGE_SIZE <= rowCount) {
+                loadPage(pageIndex);
+            }
+        }
+        pagesRequestedDuringRefresh.clear();
+        // If the user is at the end of the list, check for more rows
+        if (!endReached && pages.get(rowCount / PAGE_SIZE - 1) != null) {
+            loadPage(rowCount / PAGE_SIZE);
+        }
+        if (refreshPending) {
+            refreshPending = false;
+            refresh();
+        }
+    }
+
+    /**
+     * Reload only the row of the updated product and patch it into its page. The cost doesn't
+     * depend on the size of the table, unlike {@link #refresh()}.
+     *
+     * @param productId The ID of the updated product.
+     */
+    private void patchRow(final long productId) {
+        if (closed) {
+            return;
+        }
+        if (refreshing) {
+            // The running refresh may have read the row before the update
+            refreshPending = true;
+            return;
+        }
+        final int pageIndex = findPageIndex(productId);
+        if (pageIndex == -1) {
+            // The row isn't in memory, so nothing on the screen changes. A search may match
+            // the product now though, so search results are refreshed.
+            if (!CONTENT_URI.equals(contentUri)) {
+                refresh();
+            }
+            return;
+        }
+        final Page page = pages.get(pageIndex);
+        final int patchGeneration = generation;
+        PAGE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The row is read through the list URI, so a product that no longer matches the search is left out
+                final Cursor rowCursor = contentResolver.query(contentUri, projection,
+                        COLUMN_PROD_ID + "=?", new String[] {String.valueOf(productId)}, null);
+                if (rowCursor == null) {
+                    // Nothing to patch, the row is reloaded with its page on the next change
+                    Log.e(LOG_TAG, "Error loading product " + productId);
+                    return;
+                }
+                final ProductSnapshot rowSnapshot = ProductSnapshot.of(rowCursor);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRowPatched(pageIndex, page, productId, rowCursor, rowSnapshot, patchGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Put the reloaded row into its page. Called on the main thread.
+     */
+    private void onRowPatched(int pageIndex, Page page, long productId, Cursor rowCursor,
+                              ProductSnapshot rowSnapshot, int patchGeneration) {
+        int pagePosition = page.snapshot.indexOf(productId);
+        if (patchGeneration != generation || pages.get(pageIndex) != page || pagePosition == -1) {
+            // The page has been refreshed, evicted or closed since the patch started
+            rowCursor.close();
+            return;
+        }
+        if (rowSnapshot.size() != 1) {
+            // The product has left the list meanwhile, so the rows after it move
+            rowCursor.close();
+            refresh();
+            return;
+        }
+        if (page.snapshot.isSameRow(pagePosition, rowSnapshot, 0)) {
+            rowCursor.close();
+            return;
+        }
+        if (sortKeyColumns.length > 0) {
+            rowCursor.moveToFirst();
+            Cursor oldRow = page.moveToRow(pagePosition);
+            if (oldRow == null || !Arrays.equals(readKey(oldRow), readKey(rowCursor))) {
+                // A sort key has changed, so the product may be in another position now
+                rowCursor.close();
+                refresh();
+                return;
+            }
+        }
+        page.patchRow(pagePosition, rowCursor, rowSnapshot);
+        listUpdateCallback.onChanged(pageIndex * PAGE_SIZE + pagePosition, 1, null);
+        Log.d(LOG_TAG, "TEST: Patched product " + productId + " in page " + pageIndex);
+    }
+
+    /**
+     * Find the loaded page with the given product.
+     *
+     * @return the index of the page, or -1 if no loaded page has the product.
+     */
+    private int findPageIndex(long productId) {
+        for (Map.Entry<Integer, Page> entry : pages.snapshot().entrySet()) {
+            if (entry.getValue().snapshot.indexOf(productId) != -1) {
+                return entry.getKey();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remember the key of the page and, if the page is full, the key of the next one.
+     */
+    private void rememberPageKeys(int pageIndex, String[] afterKey, Page page) {
+        pageKeys.put(pageIndex, afterKey);
+        if (page.size() == PAGE_SIZE) {
+            page.cursor.moveToPosition(PAGE_SIZE - 1);
+            pageKeys.put(pageIndex + 1, readKey(page.cursor));
+        }
+    }
+
+    /**
+     * Read the key of the current row of the cursor, which must have the {@link #keyProjection} columns.
+     */
+    private String[] readKey(Cursor cursor) {
+        String[] key = new String[keyProjection.length];
+        for (int i = 0; i < keyProjection.length; i++) {
+            key[i] = cursor.getString(cursor.getColumnIndexOrThrow(keyProjection[i]));
+        }
+        return key;
+    }
+
+    /**
+     * Query a page of products starting after the given key. Called on the background thread.
+     *
+     * @return the page, or null if the query failed, e.g. because the provider process has died.
+     */
+    @Nullable
+    private Page queryPage(String[] afterKey) {
+        Uri.Builder pageUriBuilder = contentUri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE));
+        String selection = null;
+        if (afterKey == PAST_END_KEY) {
+            // Nothing to read, the page is empty
+            selection = "0";
+        } else if (afterKey != null) {
+            for (int i = 0; i < sortKeyColumns.length; i++) {
+                pageUriBuilder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey[i]);
+            }
+            pageUriBuilder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, afterKey[sortKeyColumns.length]);
+        }
+        Cursor cursor = contentResolver.query(pageUriBuilder.build(), projection, selection, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        // Taking the snapshot also fills the cursor window, so binding the rows doesn't hit the disk
+        return new Page(cursor, ProductSnapshot.of(cursor));
+    }
+}
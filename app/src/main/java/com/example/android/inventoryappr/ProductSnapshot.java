@@ -0,0 +1,149 @@
+package com.example.android.inventoryappr;
+
+import android.database.Cursor;
+
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+
+/**
+ * {@link ProductSnapshot} is a copy of the rows of a product {@link Cursor}: the ID, the column
+ * values and a hash of the column values of each row. Two snapshots can be compared without
+ * touching the cursors they were taken from, so the snapshot can be taken on a background thread
+ * and compared later. The hashes tell most changed rows apart quickly, and rows with equal hashes
+ * are compared value by value, so a hash collision can't hide a change.
+ */
+public final class ProductSnapshot {
+
+    /* The product IDs in the order of the rows */
+    private final long[] ids;
+    /* The hash of all the column values of each row */
+    private final int[] contentHashes;
+    /* The column values of all the rows, row after row */
+    private final Object[] values;
+    /* Number of columns in each row */
+    private final int columnCount;
+
+    private ProductSnapshot(long[] ids, int[] contentHashes, Object[] values, int columnCount) {
+        this.ids = ids;
+        this.contentHashes = contentHashes;
+        this.values = values;
+        this.columnCount = columnCount;
+    }
+
+    /**
+     * Take a snapshot of all the rows in the cursor. The cursor position is reset afterwards.
+     *
+     * @param cursor The cursor with product rows. It must include the "_id" column.
+     * @return the new snapshot.
+     */
+    public static ProductSnapshot of(Cursor cursor) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        int[] contentHashes = new int[count];
+        int idColumnIndex = cursor.getColumnIndexOrThrow(COLUMN_PROD_ID);
+        int columnCount = cursor.getColumnCount();
+        Object[] values = new Object[count * columnCount];
+
+        cursor.moveToPosition(-1);
+        for (int row = 0; cursor.moveToNext(); row++) {
+            ids[row] = cursor.getLong(idColumnIndex);
+            int hash = 1;
+            for (int column = 0; column < columnCount; column++) {
+                Object value = getColumnValue(cursor, column);
+                values[row * columnCount + column] = value;
+                hash = 31 * hash + (value == null ? 0 : value.hashCode());
+            }
+            contentHashes[row] = hash;
+        }
+        cursor.moveToPosition(-1);
+        return new ProductSnapshot(ids, contentHashes, values, columnCount);
+    }
+
+    /**
+     * Return a single column value of the current row.
+     */
+    private static Object getColumnValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    /**
+     * @return the number of rows in the snapshot.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param position The row position.
+     * @return the product ID at the given position.
+     */
+    public long getId(int position) {
+        return ids[position];
+    }
+
+    /**
+     * @param id The product ID.
+     * @return the position of the product, or -1 if the snapshot doesn't have it.
+     */
+    public int indexOf(long id) {
+        for (int position = 0; position < ids.length; position++) {
+            if (ids[position] == id) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return a copy of this snapshot in which a row is replaced by the row of another snapshot.
+     *
+     * @param position      The position of the row to replace.
+     * @param other         The snapshot with the new row.
+     * @param otherPosition The position of the new row in the other snapshot.
+     * @return the new snapshot.
+     */
+    public ProductSnapshot withRow(int position, ProductSnapshot other, int otherPosition) {
+        long[] newIds = ids.clone();
+        int[] newContentHashes = contentHashes.clone();
+        Object[] newValues = values.clone();
+        newIds[position] = other.ids[otherPosition];
+        newContentHashes[position] = other.contentHashes[otherPosition];
+        System.arraycopy(other.values, otherPosition * columnCount, newValues, position * columnCount, columnCount);
+        return new ProductSnapshot(newIds, newContentHashes, newValues, columnCount);
+    }
+
+    /**
+     * Check whether a row of this snapshot holds the same product with the same contents as a row
+     * of the other snapshot. Both snapshots must be taken from cursors with the same columns.
+     *
+     * @param position      The row position in this snapshot.
+     * @param other         The snapshot to compare with.
+     * @param otherPosition The row position in the other snapshot.
+     * @return true if both rows are the same.
+     */
+    public boolean isSameRow(int position, ProductSnapshot other, int otherPosition) {
+        if (ids[position] != other.ids[otherPosition]
+                || contentHashes[position] != other.contentHashes[otherPosition]) {
+            return false;
+        }
+        // Equal hashes don't guarantee equal rows, so compare the values as well
+        int offset = position * columnCount;
+        int otherOffset = otherPosition * columnCount;
+        for (int column = 0; column < columnCount; column++) {
+            Object value = values[offset + column];
+            Object otherValue = other.values[otherOffset + column];
+            if (value == null ? otherValue != null : !value.equals(otherValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
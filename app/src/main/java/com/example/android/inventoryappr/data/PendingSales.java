@@ -0,0 +1,254 @@
+package com.example.android.inventoryappr.data;
+
+import android.os.Bundle;
+import android.util.LongSparseArray;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_SOLD;
+
+/**
+ * {@link PendingSales} is the write-behind buffer of the sales of {@link ProductProvider}. A sale
+ * only changes the in-memory counters of the product, and the provider writes the sum of the
+ * sales of each product to the database later, in one transaction for all the products.
+ * <p>
+ * The counters of a product are packed into a single {@link AtomicLong}: the quantity available
+ * for sale in the high half, and the change not yet written to the database in the low half.
+ * So a sale checks the stock and takes its items with one compare-and-set, without a lock, and
+ * concurrent sales of the last items can't both succeed.
+ * <p>
+ * The available quantity is loaded from the database by the first sale of a product. It stays
+ * right while the database changes only through the writes of the buffer, so the provider
+ * evicts the product with {@link #evict(long)} when it changes the product in another way.
+ * <p>
+ * Reads of the provider add the changes not written yet, see {@link #getUnwrittenChanges()}, to
+ * the quantities read from the database, so they see the sales without waiting for the write.
+ */
+class PendingSales {
+
+    /* State of an evicted product, the sales of which have to load the quantity again */
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    /* The packed counters by product ID */
+    private final ConcurrentMap<Long, AtomicLong> states = new ConcurrentHashMap<>();
+
+    /* Number of sales that may not be written yet, it can run ahead of the actual number */
+    private final AtomicInteger pendingSaleCount = new AtomicInteger();
+
+    /**
+     * Sell the given count of a product, if the quantity of the product is known.
+     *
+     * @param result Receives {@link ProductContract#EXTRA_SOLD} and
+     *               {@link ProductContract#EXTRA_QUANTITY}, as the sell method returns them.
+     * @return the number of sales not written yet, counting this one, 0 if the product wasn't
+     * sold, or -1 if the quantity isn't known. Then load it with {@link #load(long, int)} and sell again.
+     */
+    int sell(long productId, int count, Bundle result) {
+        AtomicLong state = states.get(productId);
+        if (state == null) {
+            return -1;
+        }
+        while (true) {
+            long packed = state.get();
+            if (packed == EVICTED) {
+                states.remove(productId, state);
+                return -1;
+            }
+            int available = available(packed);
+            if (available < count) {
+                // There are not enough products in stock
+                result.putBoolean(EXTRA_SOLD, false);
+                result.putInt(EXTRA_QUANTITY, available);
+                return 0;
+            }
+            if (state.compareAndSet(packed, pack(available - count, unwritten(packed) - count))) {
+                result.putBoolean(EXTRA_SOLD, true);
+                result.putInt(EXTRA_QUANTITY, available - count);
+                // Counted after the change, so a flush that counts it has seen the change
+                return pendingSaleCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Set the quantity of a product read from the database, unless a concurrent sale has set it first.
+     */
+    void load(long productId, int quantity) {
+        states.putIfAbsent(productId, new AtomicLong(pack(quantity, 0)));
+    }
+
+    /**
+     * @return whether there may be sales not written yet.
+     */
+    boolean hasPendingSales() {
+        return pendingSaleCount.get() > 0;
+    }
+
+    /**
+     * Take the changes not written yet. The caller writes them to the database, or gives them back
+     * with {@link #restore(LongSparseArray)} if it can't. Called by one thread at a time.
+     *
+     * @return the changes of the quantities by product ID, negative for the sales.
+     */
+    LongSparseArray<Integer> drain() {
+        // The sales counted now are seen by the loop below, the later ones stay counted
+        int drainedSaleCount = pendingSaleCount.get();
+        LongSparseArray<Integer> changes = new LongSparseArray<>();
+        for (Map.Entry<Long, AtomicLong> entry : states.entrySet()) {
+            AtomicLong state = entry.getValue();
+            while (true) {
+                long packed = state.get();
+                if (packed == EVICTED || unwritten(packed) == 0) {
+                    break;
+                }
+                if (state.compareAndSet(packed, pack(available(packed), 0))) {
+                    changes.put(entry.getKey(), unwritten(packed));
+                    break;
+                }
+            }
+        }
+        pendingSaleCount.addAndGet(-drainedSaleCount);
+        return changes;
+    }
+
+    /**
+     * Return the changes not written yet, without taking them. Together with the database as it
+     * was before or after any write of the buffer, they give the current quantities.
+     *
+     * @return the changes of the quantities by product ID, negative for the sales.
+     */
+    LongSparseArray<Integer> getUnwrittenChanges() {
+        LongSparseArray<Integer> changes = new LongSparseArray<>();
+        if (!hasPendingSales()) {
+            return changes;
+        }
+        for (Map.Entry<Long, AtomicLong> entry : states.entrySet()) {
+            long packed = entry.getValue().get();
+            if (packed != EVICTED && unwritten(packed) != 0) {
+                changes.put(entry.getKey(), unwritten(packed));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Give back the changes returned by {@link #drain()} that couldn't be written, so the next
+     * flush writes them. The available quantities already account for them.
+     */
+    void restore(LongSparseArray<Integer> changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            AtomicLong state = states.get(changes.keyAt(i));
+            int change = changes.valueAt(i);
+            while (state != null) {
+                long packed = state.get();
+                if (packed == EVICTED) {
+                    // Changed by another write since, which has replaced the quantity
+                    break;
+                }
+                if (state.compareAndSet(packed, pack(available(packed), unwritten(packed) + change))) {
+                    pendingSaleCount.incrementAndGet();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Correct the available quantity of a product whose drained sales couldn't be written, because
+     * the database has less than they took. Those sales are dropped, and the sales made since the
+     * drain are taken from the quantity in the database.
+     *
+     * @param quantity The quantity of the product in the database.
+     */
+    void reload(long productId, int quantity) {
+        AtomicLong state = states.get(productId);
+        while (state != null) {
+            long packed = state.get();
+            if (packed == EVICTED) {
+                break;
+            }
+            // Negative if the sales made since the drain can't be written either, which stops more sales
+            if (state.compareAndSet(packed, pack(quantity + unwritten(packed), unwritten(packed)))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Forget a deleted product, together with its sales that haven't been written.
+     */
+    void remove(long productId) {
+        AtomicLong state = states.remove(productId);
+        if (state != null) {
+            state.set(EVICTED);
+        }
+    }
+
+    /**
+     * Forget the quantity of a product that has changed in the database, so the next sale loads
+     * it again. A product sold since the last flush is kept until that sale is written.
+     */
+    void evict(long productId) {
+        AtomicLong state = states.get(productId);
+        if (state != null && evict(state)) {
+            states.remove(productId, state);
+        }
+    }
+
+    /**
+     * Forget the quantities of all the products, when it isn't known which products have changed.
+     */
+    void evictAll() {
+        for (Map.Entry<Long, AtomicLong> entry : states.entrySet()) {
+            if (evict(entry.getValue())) {
+                states.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Mark the state evicted if it has no unwritten changes.
+     *
+     * @return whether the state has been evicted.
+     */
+    private static boolean evict(AtomicLong state) {
+        while (true) {
+            long packed = state.get();
+            if (packed == EVICTED) {
+                return true;
+            }
+            if (unwritten(packed) != 0) {
+                return false;
+            }
+            if (state.compareAndSet(packed, EVICTED)) {
+                return true;
+            }
+        }
+    }
+
+    private static long pack(int available, int unwritten) {
+        return ((long) available << 32) | (unwritten & 0xFFFFFFFFL);
+    }
+
+    private static int available(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    private static int unwritten(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Print the number of buffered sales and products.
+     */
+    void dump(PrintWriter writer) {
+        writer.printf("Pending sales: %d sales, %d products with a known quantity%n",
+                pendingSaleCount.get(), states.size());
+    }
+}
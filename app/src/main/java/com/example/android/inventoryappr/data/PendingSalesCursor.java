@@ -0,0 +1,180 @@
+package com.example.android.inventoryappr.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryappr.core.QuantityBuckets;
+
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
+
+/**
+ * {@link PendingSalesCursor} adds the sales buffered in {@link PendingSales} to the product rows
+ * read from the database: the quantity column, and the stock bucket column, which is worked out
+ * again from the quantity. The other columns are read as they are.
+ */
+class PendingSalesCursor extends CursorWrapper {
+
+    /* The changes of the quantities by product ID, taken when the rows were read */
+    private final LongSparseArray<Integer> changes;
+
+    /* The product of all the rows if the cursor has no ID column */
+    private final long productId;
+
+    private final int idColumnIndex;
+    private final int quantityColumnIndex;
+    private final int stockBucketColumnIndex;
+
+    private PendingSalesCursor(Cursor cursor, LongSparseArray<Integer> changes, long productId) {
+        super(cursor);
+        this.changes = changes;
+        this.productId = productId;
+        idColumnIndex = cursor.getColumnIndex(COLUMN_PROD_ID);
+        quantityColumnIndex = cursor.getColumnIndex(COLUMN_PROD_QUANTITY);
+        stockBucketColumnIndex = cursor.getColumnIndex(COLUMN_STOCK_BUCKET);
+    }
+
+    /**
+     * Add the changes of the quantities to the product rows of the cursor.
+     *
+     * @param cursor    Product rows with the ID column, or the rows of a single product.
+     * @param changes   The changes of the quantities by product ID, negative for the sales.
+     * @param productId The product of all the rows if the cursor has no ID column, otherwise -1.
+     * @return the cursor with the changes, or the given cursor if none of its columns change.
+     */
+    static Cursor wrap(Cursor cursor, LongSparseArray<Integer> changes, long productId) {
+        if (changes.size() == 0 || (cursor.getColumnIndex(COLUMN_PROD_QUANTITY) == -1
+                && cursor.getColumnIndex(COLUMN_STOCK_BUCKET) == -1)) {
+            return cursor;
+        }
+        return new PendingSalesCursor(cursor, changes, productId);
+    }
+
+    /**
+     * Check whether the rows of the cursor can be given the changes: the stock bucket needs the
+     * quantity, and rows of several products need their IDs.
+     *
+     * @param columns   The columns of the cursor, null for all the product columns.
+     * @param productId The product of all the rows, or -1 for rows of several products.
+     */
+    static boolean supports(String[] columns, long productId) {
+        if (columns == null) {
+            return true;
+        }
+        boolean hasId = false;
+        boolean hasQuantity = false;
+        boolean hasStockBucket = false;
+        for (String column : columns) {
+            hasId |= COLUMN_PROD_ID.equals(column);
+            hasQuantity |= COLUMN_PROD_QUANTITY.equals(column);
+            hasStockBucket |= COLUMN_STOCK_BUCKET.equals(column);
+        }
+        if (!hasQuantity && !hasStockBucket) {
+            return true;
+        }
+        return (hasId || productId != -1) && (hasQuantity || !hasStockBucket);
+    }
+
+    /**
+     * Return the change of the quantity of the current row.
+     */
+    private int getChange() {
+        long rowProductId = idColumnIndex == -1 ? productId : super.getLong(idColumnIndex);
+        return changes.get(rowProductId, 0);
+    }
+
+    /**
+     * Return the value of the given column with the change of the quantity, or null if the column
+     * doesn't change.
+     */
+    private Long getChangedValue(int columnIndex) {
+        if (columnIndex != quantityColumnIndex && columnIndex != stockBucketColumnIndex) {
+            return null;
+        }
+        int change = getChange();
+        if (change == 0) {
+            return null;
+        }
+        int quantity = super.getInt(quantityColumnIndex) + change;
+        return (long) (columnIndex == quantityColumnIndex ? quantity : QuantityBuckets.bucketOf(quantity));
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        return getChangedValue(columnIndex) == null ? super.getType(columnIndex) : FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return getChangedValue(columnIndex) == null && super.isNull(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Long value = getChangedValue(columnIndex);
+        return value == null ? super.getLong(columnIndex) : value;
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        Long value = getChangedValue(columnIndex);
+        return value == null ? super.getInt(columnIndex) : value.intValue();
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        Long value = getChangedValue(columnIndex);
+        return value == null ? super.getShort(columnIndex) : value.shortValue();
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        Long value = getChangedValue(columnIndex);
+        return value == null ? super.getDouble(columnIndex) : value.doubleValue();
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        Long value = getChangedValue(columnIndex);
+        return value == null ? super.getFloat(columnIndex) : value.floatValue();
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Long value = getChangedValue(columnIndex);
+        return value == null ? super.getString(columnIndex) : value.toString();
+    }
+
+    /**
+     * Copy the text of the column into the buffer. A changed value is formatted digit by digit,
+     * so binding a list row still allocates nothing unless the buffer is too small.
+     */
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        Long value = getChangedValue(columnIndex);
+        if (value == null) {
+            super.copyStringToBuffer(columnIndex, buffer);
+            return;
+        }
+        long number = value;
+        boolean negative = number < 0;
+        int length = negative ? 2 : 1;
+        for (long rest = number / 10; rest != 0; rest /= 10) {
+            length++;
+        }
+        if (buffer.data == null || buffer.data.length < length) {
+            buffer.data = new char[length];
+        }
+        for (int i = length - 1; i >= (negative ? 1 : 0); i--) {
+            buffer.data[i] = (char) ('0' + Math.abs(number % 10));
+            number /= 10;
+        }
+        if (negative) {
+            buffer.data[0] = '-';
+        }
+        buffer.sizeCopied = length;
+    }
+}
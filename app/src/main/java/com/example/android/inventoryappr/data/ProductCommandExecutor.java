@@ -0,0 +1,230 @@
+package com.example.android.inventoryappr.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_SELL_COUNT;
+import static com.example.android.inventoryappr.data.ProductContract.METHOD_SELL;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_VERSION;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
+
+/**
+ * {@link ProductCommandExecutor} runs the write operations on the {@link ProductProvider}
+ * off the main thread. All the commands of the app go through one background thread, so they
+ * are applied in the order they were sent and never block the UI. The result of each command
+ * is delivered back on the main thread to the given {@link OnCommandCompleteListener}.
+ */
+public class ProductCommandExecutor {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = ProductCommandExecutor.class.getSimpleName();
+
+    /* Single background thread shared by all the instances, which keeps the commands in order */
+    private static final ExecutorService WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /* Handler to post the results back to the main thread */
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    /* Number of conditional updates tried by changeQuantity() before it gives up */
+    private static final int MAX_UPDATE_ATTEMPTS = 3;
+
+    /* Columns read again by changeQuantity() after a conflict */
+    private static final String[] QUANTITY_PROJECTION = {COLUMN_PROD_QUANTITY, COLUMN_VERSION};
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Constructs a new {@link ProductCommandExecutor}.
+     *
+     * @param context of the app. Only the application context is kept, so the commands can
+     *                outlive the calling activity or fragment.
+     */
+    public ProductCommandExecutor(Context context) {
+        contentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Listener interface for the result of a command.
+     *
+     * @param <T> type of the command result.
+     */
+    public interface OnCommandCompleteListener<T> {
+
+        /**
+         * Callback. When the command is done. Called on the main thread.
+         *
+         * @param result The result of the command, or null if the command failed with an exception.
+         */
+        public void onCommandComplete(@Nullable T result);
+    }
+
+    /**
+     * Insert a new product.
+     *
+     * @param values   The values of the new product.
+     * @param listener Receives the URI of the new product.
+     */
+    public void insert(final ContentValues values, @Nullable OnCommandCompleteListener<Uri> listener) {
+        execute(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return contentResolver.insert(CONTENT_URI, values);
+            }
+        }, listener);
+    }
+
+    /**
+     * Insert several products at once.
+     *
+     * @param valuesArray The values of the new products.
+     * @param listener    Receives the number of inserted products.
+     */
+    public void bulkInsert(final ContentValues[] valuesArray, @Nullable OnCommandCompleteListener<Integer> listener) {
+        execute(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return contentResolver.bulkInsert(CONTENT_URI, valuesArray);
+            }
+        }, listener);
+    }
+
+    /**
+     * Update the products at the given URI.
+     *
+     * @param uri      The URI of the products to update.
+     * @param values   The new values.
+     * @param listener Receives the number of updated products.
+     */
+    public void update(final Uri uri, final ContentValues values, @Nullable OnCommandCompleteListener<Integer> listener) {
+        execute(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return contentResolver.update(uri, values, null, null);
+            }
+        }, listener);
+    }
+
+    /**
+     * Change the quantity of a product by the given amount, without overwriting the concurrent
+     * changes of the product such as the sales from the list. The new quantity is written with a
+     * conditional update at the version the quantity was read at. On a conflict the product is
+     * read again and the change is applied to its current quantity, see
+     * {@link ProductContract.ProductEntry#COLUMN_VERSION}.
+     *
+     * @param productUri The URI of the product.
+     * @param quantity   The quantity the change was made to.
+     * @param version    The version of the product with that quantity.
+     * @param change     The amount to add to the quantity, negative to take some away. The quantity
+     *                   doesn't go below 0.
+     * @param listener   Receives the number of updated products, 0 if the product has been deleted
+     *                   or kept changing for {@link #MAX_UPDATE_ATTEMPTS} attempts.
+     */
+    public void changeQuantity(final Uri productUri, final int quantity, final long version, final int change,
+                               @Nullable OnCommandCompleteListener<Integer> listener) {
+        execute(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int currentQuantity = quantity;
+                long currentVersion = version;
+                ContentValues values = new ContentValues();
+                for (int attempt = 1; ; attempt++) {
+                    long newQuantity = Math.min((long) currentQuantity + change, Integer.MAX_VALUE);
+                    values.put(COLUMN_PROD_QUANTITY, (int) Math.max(newQuantity, 0));
+                    values.put(COLUMN_VERSION, currentVersion);
+                    int rowsUpdated = contentResolver.update(productUri, values, null, null);
+                    if (rowsUpdated != 0 || attempt == MAX_UPDATE_ATTEMPTS) {
+                        return rowsUpdated;
+                    }
+                    // Changed or deleted since it was read, read it again
+                    Cursor cursor = contentResolver.query(productUri, QUANTITY_PROJECTION, null, null, null);
+                    if (cursor == null) {
+                        return 0;
+                    }
+                    try {
+                        if (!cursor.moveToFirst()) {
+                            // The product has been deleted
+                            return 0;
+                        }
+                        currentQuantity = cursor.getInt(0);
+                        currentVersion = cursor.getLong(1);
+                    } finally {
+                        cursor.close();
+                    }
+                    Log.d(LOG_TAG, "TEST: Changing the quantity again at version " + currentVersion);
+                }
+            }
+        }, listener);
+    }
+
+    /**
+     * Delete the products at the given URI.
+     *
+     * @param uri      The URI of the products to delete.
+     * @param listener Receives the number of deleted products.
+     */
+    public void delete(final Uri uri, @Nullable OnCommandCompleteListener<Integer> listener) {
+        execute(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return contentResolver.delete(uri, null, null);
+            }
+        }, listener);
+    }
+
+    /**
+     * Sell items of a product, see {@link ProductContract#METHOD_SELL}.
+     *
+     * @param productId The ID of the product to sell.
+     * @param count     The number of items to sell.
+     * @param listener  Receives the result Bundle of the sale.
+     */
+    public void sell(final long productId, final int count, @Nullable OnCommandCompleteListener<Bundle> listener) {
+        execute(new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                Bundle extras = new Bundle();
+                extras.putInt(EXTRA_SELL_COUNT, count);
+                return contentResolver.call(CONTENT_URI, METHOD_SELL, String.valueOf(productId), extras);
+            }
+        }, listener);
+    }
+
+    /**
+     * Run the command on the background thread and post its result to the listener.
+     */
+    private <T> void execute(final Callable<T> command, @Nullable final OnCommandCompleteListener<T> listener) {
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                try {
+                    result = command.call();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Error executing product command", e);
+                }
+                if (listener != null) {
+                    final T commandResult = result;
+                    MAIN_HANDLER.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onCommandComplete(commandResult);
+                        }
+                    });
+                }
+            }
+        });
+    }
+}
@@ -1,9 +1,12 @@
 package com.example.android.inventoryappr.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import com.example.android.inventoryappr.core.QuantityBuckets;
+
 /**
  * A container for constants that define names for URIs, tables, and columns.
  */
@@ -34,6 +37,152 @@ public final class ProductContract {
      */
     public static final String PATH_PRODUCTS = ProductEntry.TABLE_NAME; // "products"
 
+    /**
+     * Possible path for looking at the suppliers of the products, e.g.
+     * content://com.example.android.inventoryappr.productprovider/suppliers/
+     */
+    public static final String PATH_SUPPLIERS = SupplierEntry.TABLE_NAME; // "suppliers"
+
+    /**
+     * Path for reading the latency metrics of the provider, see {@link MetricsEntry}.
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /**
+     * Path appended to the products path for a full-text search over product and supplier names,
+     * followed by the search text. For instance, content://com.example.android.inventoryappr.productprovider/products/search/pen
+     * returns the products with a name or supplier name that has a word starting with "pen".
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the products path to export all the products as a file, see
+     * {@link ProductEntry#CONTENT_EXPORT_URI}.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path appended to the products path for the inventory totals, see {@link SummaryEntry}.
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path appended to the URI of a single product for its sales ledger, see
+     * {@link SalesEntry#buildProductSalesUri(long)}.
+     */
+    public static final String PATH_SALES = "sales";
+
+    /**
+     * Query parameter for paged queries of {@link ProductEntry#CONTENT_URI}: only the products with
+     * an ID greater than this value are returned (keyset pagination). Paged queries are sorted by
+     * the product ID, unless {@link #QUERY_PARAMETER_SORT} is given.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter for paged queries with {@link #QUERY_PARAMETER_SORT}, repeated for each of the
+     * {@link ProductEntry#getSortKeyColumns(String)}: the values of the sort key columns of the last
+     * product of the previous page. Only the products after that one in the sort order are returned,
+     * together with {@link #QUERY_PARAMETER_AFTER_ID} for the product ID of that product.
+     */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} and the search URIs for the order of the
+     * products: {@link #SORT_NAME}, {@link #SORT_PRICE}, {@link #SORT_QUANTITY} or
+     * {@link #SORT_SUPPLIER}. Products with equal sort keys are sorted by their ID. Without it the
+     * products are in the order they were added. Each order is read from an index, so no sorting
+     * is needed however many products there are.
+     */
+    public static final String QUERY_PARAMETER_SORT = "sort";
+
+    /* Values of {@link #QUERY_PARAMETER_SORT} */
+    public static final String SORT_NAME = "name";
+    public static final String SORT_PRICE = "price";
+    public static final String SORT_QUANTITY = "quantity";
+    public static final String SORT_SUPPLIER = "supplier";
+
+    /** Query parameter for the maximum number of products returned by a paged query. */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter for the number of products skipped by a paged query. Skipping rows is
+     * linear in the offset, so prefer {@link #QUERY_PARAMETER_AFTER_ID} and use the offset only
+     * to find where to start.
+     */
+    public static final String QUERY_PARAMETER_OFFSET = "offset";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} and the search URIs: when "true", only the
+     * products that are low on stock are returned, i.e. those with a
+     * {@link ProductEntry#COLUMN_STOCK_BUCKET} up to {@link QuantityBuckets#LOW_STOCK_MAX_BUCKET}.
+     */
+    public static final String QUERY_PARAMETER_LOW_STOCK = "low_stock";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} and the search URIs: when "true", only the
+     * products that are out of stock are returned.
+     */
+    public static final String QUERY_PARAMETER_OUT_OF_STOCK = "out_of_stock";
+
+    /**
+     * Query parameters of {@link SalesEntry#buildProductSalesUri(long)}: only the entries with a
+     * {@link SalesEntry#COLUMN_TIME} from the first value, included, to the second one, excluded,
+     * are returned. Both are in milliseconds since the epoch, and both are optional.
+     */
+    public static final String QUERY_PARAMETER_FROM = "from";
+    public static final String QUERY_PARAMETER_TO = "to";
+
+    /**
+     * Query parameter of the change notification URIs for a single product, e.g.
+     * content://com.example.android.inventoryappr.productprovider/products/5?change=update.
+     * It tells observers how the product has changed: {@link #CHANGE_INSERT},
+     * {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}. Changes of several products at once are
+     * notified on {@link ProductEntry#CONTENT_URI} without it.
+     */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+
+    /* Values of {@link #QUERY_PARAMETER_CHANGE} */
+    public static final String CHANGE_INSERT = "insert";
+    public static final String CHANGE_UPDATE = "update";
+    public static final String CHANGE_DELETE = "delete";
+
+    /**
+     * Name of the provider method that sells a product, i.e. decreases its quantity atomically.
+     * Call it with {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)}
+     * passing {@link ProductEntry#CONTENT_URI}, the product ID as the argument and optionally
+     * {@link #EXTRA_SELL_COUNT} in the extras.
+     * <p>
+     * The provider buffers the sales in memory and writes them shortly after, a burst of sales in
+     * a single transaction, and only then notifies the product URI. The result of the method and
+     * all the queries of the provider include the buffered sales already.
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /** Number of product items to sell. <P>Type: int</P> Defaults to 1. */
+    public static final String EXTRA_SELL_COUNT = "sell_count";
+
+    /** Whether the sale succeeded, false if the product is missing or out of stock. <P>Type: boolean</P> */
+    public static final String EXTRA_SOLD = "sold";
+
+    /** The product quantity after the sale (or current quantity if the sale failed). <P>Type: int</P> */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Name of the provider method that returns the counters of the cache of single product rows,
+     * in {@link #EXTRA_CACHE_HITS}, {@link #EXTRA_CACHE_MISSES} and {@link #EXTRA_CACHE_SIZE}.
+     */
+    public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+
+    /** Number of product queries answered from the cache. <P>Type: long</P> */
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+
+    /** Number of product queries that had to read the database. <P>Type: long</P> */
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+    /** Number of product rows in the cache. <P>Type: int</P> */
+    public static final String EXTRA_CACHE_SIZE = "cache_size";
+
     /**
      * Inner class that defines the table contents.
      */
@@ -42,6 +191,63 @@ public final class ProductContract {
         /** The content URI to access the product data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        /** The base content URI to search products, see {@link #buildSearchUri(String)} */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Build the content URI to search products by the words of their name or supplier name.
+         *
+         * @param searchText The text typed by the user. Each word matches as a prefix.
+         * @return the search content URI.
+         */
+        public static Uri buildSearchUri(String searchText) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(searchText).build();
+        }
+
+        /**
+         * Return the columns that the products are sorted by for the given
+         * {@link ProductContract#QUERY_PARAMETER_SORT}, before the product ID. A paged query passes
+         * their values for the last product of the previous page in
+         * {@link ProductContract#QUERY_PARAMETER_AFTER_KEY}, so they must be in its projection.
+         * Names are compared ignoring case.
+         *
+         * @param sort The sort parameter, or null for the order in which the products were added.
+         * @return the sort key columns, empty if the products are sorted by ID only.
+         */
+        public static String[] getSortKeyColumns(String sort) {
+            if (sort == null) {
+                return new String[0];
+            }
+            switch (sort) {
+                case SORT_NAME:
+                    return new String[] {COLUMN_PROD_NAME};
+                case SORT_PRICE:
+                    return new String[] {COLUMN_PROD_PRICE};
+                case SORT_QUANTITY:
+                    return new String[] {COLUMN_PROD_QUANTITY};
+                case SORT_SUPPLIER:
+                    // By supplier name, then the products of each supplier together, by name
+                    return new String[] {COLUMN_SUPPLIER_NAME, COLUMN_SUPPLIER_ID, COLUMN_PROD_NAME};
+                default:
+                    throw new IllegalArgumentException("Unknown sort order " + sort);
+            }
+        }
+
+        /**
+         * The content URI to export all the products, with their supplier names and phone numbers.
+         * Open it with {@link ContentResolver#openTypedAssetFileDescriptor(Uri, String, android.os.Bundle)}
+         * for {@link #EXPORT_CSV_TYPE} or {@link #EXPORT_JSON_TYPE}, or with
+         * {@link ContentResolver#openInputStream(Uri)} for CSV. The rows are written to a pipe while
+         * they are read, so the file can be read right away and has no known length.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /** MIME type of the CSV export, which has a header and can be imported back */
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+
+        /** MIME type of the JSON export, an array with an object per product */
+        public static final String EXPORT_JSON_TYPE = "application/json";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -58,6 +264,12 @@ public final class ProductContract {
         /* Name of database table for products */
         public static final String TABLE_NAME = "products";
 
+        /* Name of the view of the products joined with their suppliers */
+        public static final String SUPPLIERS_VIEW_NAME = "products_with_suppliers";
+
+        /* Name of the full-text search table over the product and supplier names */
+        public static final String FTS_TABLE_NAME = "products_fts";
+
         /**
          * The product ID. <P>Type: INTEGER</P>
          * The Cursor must include a column named "_id" or the CursorAdapter will not work.
@@ -73,10 +285,184 @@ public final class ProductContract {
         /* The quantity of the product. <P>Type: INTEGER</P> */
         public static final String COLUMN_PROD_QUANTITY = "prod_quantity";
 
+        /*
+         * The stock level bucket of the quantity, see {@link QuantityBuckets}. <P>Type: INTEGER</P>
+         * The database keeps it up to date with the quantity, so it's read only.
+         */
+        public static final String COLUMN_STOCK_BUCKET = "stock_bucket";
+
+        /* The ID of the supplier in the suppliers table. <P>Type: INTEGER</P> */
+        public static final String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /*
+         * The version of the product, incremented by the database on every change of the product.
+         * <P>Type: INTEGER</P> It's read only, but it can be given in the values of an update of a
+         * single product to make the update conditional: the product is updated only if its version
+         * is still the given one, otherwise the update returns 0, as it does for a deleted product.
+         * Then query the product again, merge the change into its current values and retry. In
+         * {@link android.content.ContentResolver#applyBatch(String, java.util.ArrayList)} use
+         * {@link android.content.ContentProviderOperation.Builder#withExpectedCount(int)} to roll
+         * the batch back on a conflict.
+         */
+        public static final String COLUMN_VERSION = "version";
+
+        /*
+         * The name of the supplier, joined from the suppliers table. <P>Type: TEXT</P>
+         * On insert and update it can be given together with the phone number instead of
+         * the supplier ID, the provider then finds or adds the supplier.
+         */
+        public static final String COLUMN_SUPPLIER_NAME = SupplierEntry.COLUMN_SUPPLIER_NAME;
+
+        /* The phone number of the supplier, joined from the suppliers table. <P>Type: TEXT</P> */
+        public static final String COLUMN_SUPPLIER_PHONE = SupplierEntry.COLUMN_SUPPLIER_PHONE;
+    }
+
+    /**
+     * Inner class that defines the suppliers table contents. Each supplier is stored once and
+     * referenced by the products, so renaming a supplier updates a single row.
+     */
+    public static abstract class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the supplier data in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /* Name of database table for suppliers */
+        public static final String TABLE_NAME = "suppliers";
+
+        /* The supplier ID. <P>Type: INTEGER</P> */
+        public static final String COLUMN_SUPPLIER_ID = "_id";
+
         /* The name of the supplier. <P>Type: TEXT</P> */
         public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
 
         /* The phone number of the supplier. <P>Type: TEXT</P> */
         public static final String COLUMN_SUPPLIER_PHONE = "supplier_phone";
     }
+
+    /**
+     * Inner class that defines the summary table contents. The table has a single row with the
+     * totals of all the products, which the database keeps up to date on every change of the
+     * products, so reading them doesn't scan the products table. A query on {@link #CONTENT_URI}
+     * is notified of the changes of the products.
+     */
+    public static abstract class SummaryEntry implements BaseColumns {
+
+        /** The content URI to read the inventory totals */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}, a single row.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS + "/" + PATH_SUMMARY;
+
+        /* Name of database table for the inventory totals */
+        public static final String TABLE_NAME = "products_summary";
+
+        /* The ID of the only row of the table */
+        public static final int SUMMARY_ID = 1;
+
+        /* The number of products. <P>Type: INTEGER</P> */
+        public static final String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /* The sum of the product quantities. <P>Type: INTEGER</P> */
+        public static final String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /* The sum of the product prices times their quantities, in the smallest currency unit. <P>Type: INTEGER</P> */
+        public static final String COLUMN_TOTAL_VALUE = "total_value";
+    }
+
+    /**
+     * Inner class that defines the sales table contents, the ledger of the quantity changes of
+     * the products. Every change of the quantity of a product adds an entry with the difference,
+     * in the same transaction as the change, so selling and restocking leave a history behind
+     * the current quantity. Entries are never updated or deleted, also not with their product.
+     * <p>
+     * The entries of a product are read through {@link #buildProductSalesUri(long)} in the order
+     * of their times. The table is indexed by product and time, so the entries of a day or a
+     * week are a range scan of the index, however long the ledger grows.
+     */
+    public static abstract class SalesEntry implements BaseColumns {
+
+        /**
+         * Build the content URI of the sales ledger of a product, e.g.
+         * content://com.example.android.inventoryappr.productprovider/products/5/sales?from=1500000000000.
+         * Limit the entries to a time range with {@link ProductContract#QUERY_PARAMETER_FROM} and
+         * {@link ProductContract#QUERY_PARAMETER_TO}. A query on it is notified of the changes of the product.
+         *
+         * @param productId The ID of the product.
+         * @return the content URI of the entries of the product.
+         */
+        public static Uri buildProductSalesUri(long productId) {
+            return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId).buildUpon()
+                    .appendPath(PATH_SALES)
+                    .build();
+        }
+
+        /**
+         * The MIME type of the sales ledger of a product.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS + "/" + PATH_SALES;
+
+        /* Name of database table for the sales ledger */
+        public static final String TABLE_NAME = "sales";
+
+        /* The ID of the product whose quantity changed. <P>Type: INTEGER</P> */
+        public static final String COLUMN_PRODUCT_ID = "product_id";
+
+        /* The change of the quantity, negative for a sale and positive for a restock. <P>Type: INTEGER</P> */
+        public static final String COLUMN_DELTA = "delta";
+
+        /* The time of the change, in milliseconds since the epoch. <P>Type: INTEGER</P> */
+        public static final String COLUMN_TIME = "time";
+    }
+
+    /**
+     * Inner class that defines the columns of the provider metrics. A query on {@link #CONTENT_URI}
+     * returns a row for each operation and URI that has been used since the provider started,
+     * e.g. with "adb shell content query --uri content://com.example.android.inventoryappr.productprovider/metrics".
+     * The same table is printed by "adb shell dumpsys activity provider ProductProvider".
+     */
+    public static abstract class MetricsEntry {
+
+        /** The content URI to read the metrics */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+        /* The provider operation, e.g. "query". <P>Type: TEXT</P> */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /* The kind of URI of the operation, e.g. "products/#". <P>Type: TEXT</P> */
+        public static final String COLUMN_URI = "uri";
+
+        /* The number of operations. <P>Type: INTEGER</P> */
+        public static final String COLUMN_COUNT = "count";
+
+        /* The number of operations that threw an exception. <P>Type: INTEGER</P> */
+        public static final String COLUMN_ERRORS = "errors";
+
+        /* The total number of rows returned or changed. <P>Type: INTEGER</P> */
+        public static final String COLUMN_ROWS = "rows";
+
+        /* The total time spent in the operations, in microseconds. <P>Type: INTEGER</P> */
+        public static final String COLUMN_TOTAL_MICROS = "total_us";
+
+        /* The estimated latency percentiles and the maximum latency, in microseconds. <P>Type: INTEGER</P> */
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P90_MICROS = "p90_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+    }
 }
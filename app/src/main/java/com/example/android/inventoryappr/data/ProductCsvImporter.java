@@ -0,0 +1,500 @@
+package com.example.android.inventoryappr.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteConstraintException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.example.android.inventoryappr.core.CsvReader;
+import com.example.android.inventoryappr.core.CsvWriter;
+import com.example.android.inventoryappr.core.ProductInput;
+import com.example.android.inventoryappr.core.ProductRules;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
+
+/**
+ * {@link ProductCsvImporter} adds the products of a CSV catalog to the {@link ProductProvider}.
+ * <p>
+ * The first record of the file is the header, which names the {@link #CSV_COLUMNS} in any order.
+ * The import is a pipeline: a reader thread streams the records from the file in chunks, a pool of
+ * threads parses and validates the chunks in parallel, and a single writer inserts the valid rows
+ * of each chunk, in the order of the file, with one bulk insert (and so one transaction) per chunk.
+ * The number of chunks in flight is bounded, so the memory used doesn't depend on the file size.
+ * <p>
+ * The records that can't be imported are written to a rejected rows file, with their line number
+ * and the reason.
+ */
+public class ProductCsvImporter {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = ProductCsvImporter.class.getSimpleName();
+
+    /** Columns the CSV header must name, the other columns are ignored */
+    public static final String[] CSV_COLUMNS = {
+            COLUMN_PROD_NAME,
+            COLUMN_PROD_PRICE,
+            COLUMN_PROD_QUANTITY,
+            COLUMN_SUPPLIER_NAME,
+            COLUMN_SUPPLIER_PHONE
+    };
+
+    /* Columns of the rejected rows file before the fields of the record */
+    private static final String REJECTED_LINE_COLUMN = "line";
+    private static final String REJECTED_REASON_COLUMN = "reason";
+
+    /* Number of records parsed together and inserted in one transaction */
+    private static final int CHUNK_SIZE = 2000;
+
+    /* Number of threads parsing the chunks, the reader and the writer have their own */
+    private static final int PARSER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /* Maximum number of chunks read but not written yet */
+    private static final int MAX_PENDING_CHUNKS = PARSER_COUNT * 2;
+
+    /* Imports run one at a time in the background */
+    private static final ExecutorService IMPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /* Handler to post the progress and the results back to the main thread */
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Constructs a new {@link ProductCsvImporter}.
+     *
+     * @param context of the app. Only the application context is kept, so the import can
+     *                outlive the calling activity or fragment.
+     */
+    public ProductCsvImporter(Context context) {
+        contentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Listener interface for the progress and the result of an import. Called on the main thread.
+     */
+    public interface OnImportListener {
+
+        /**
+         * Callback. When a chunk of records has been written.
+         *
+         * @param bytesRead  The number of bytes of the file read so far.
+         * @param totalBytes The size of the file, or -1 if unknown.
+         * @param result     The rows imported and rejected so far.
+         */
+        public void onImportProgress(long bytesRead, long totalBytes, ImportResult result);
+
+        /**
+         * Callback. When the import is done.
+         *
+         * @param result The rows imported and rejected, or null if the import failed.
+         */
+        public void onImportComplete(@Nullable ImportResult result);
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static class ImportResult {
+        private final int rowsImported;
+        private final int rowsRejected;
+        private final File rejectedRowsFile;
+
+        ImportResult(int rowsImported, int rowsRejected, File rejectedRowsFile) {
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.rejectedRowsFile = rejectedRowsFile;
+        }
+
+        public int getRowsImported() {
+            return rowsImported;
+        }
+
+        public int getRowsRejected() {
+            return rowsRejected;
+        }
+
+        /**
+         * @return the file of the rejected records, or null if there are none.
+         */
+        @Nullable
+        public File getRejectedRowsFile() {
+            return rowsRejected == 0 ? null : rejectedRowsFile;
+        }
+    }
+
+    /**
+     * Import the CSV file in the background.
+     *
+     * @param csvUri           The URI of the file, e.g. from the Storage Access Framework.
+     * @param rejectedRowsFile The file to write the rejected records to, replaced if it exists.
+     * @param listener         Receives the progress and the result.
+     */
+    public void start(final Uri csvUri, final File rejectedRowsFile, final OnImportListener listener) {
+        IMPORT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ImportResult result = null;
+                try {
+                    result = importCsv(csvUri, rejectedRowsFile, listener);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Error importing " + csvUri, e);
+                }
+                final ImportResult importResult = result;
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onImportComplete(importResult);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Import the CSV file on the calling thread, which becomes the writer of the pipeline.
+     *
+     * @param csvUri           The URI of the file.
+     * @param rejectedRowsFile The file to write the rejected records to, replaced if it exists.
+     * @param listener         Receives the progress, or null.
+     * @return the rows imported and rejected.
+     * @throws IOException if the file can't be read or has no valid header.
+     */
+    public ImportResult importCsv(Uri csvUri, File rejectedRowsFile, @Nullable final OnImportListener listener)
+            throws IOException {
+        ParcelFileDescriptor fileDescriptor = contentResolver.openFileDescriptor(csvUri, "r");
+        if (fileDescriptor == null) {
+            throw new FileNotFoundException("Cannot open " + csvUri);
+        }
+        final long totalBytes = fileDescriptor.getStatSize();
+        // Closing the channel closes the file descriptor
+        final CsvReader csvReader = new CsvReader(
+                new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor).getChannel());
+        ExecutorService parsers = null;
+        Thread readerThread = null;
+        CsvWriter rejectedRowsWriter = null;
+        try {
+            String[] header = csvReader.readRecord();
+            if (header == null) {
+                throw new IOException("The file is empty");
+            }
+            final int[] columnIndexes = getColumnIndexes(header);
+
+            rejectedRowsWriter = new CsvWriter(new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(rejectedRowsFile), "UTF-8")));
+            String[] rejectedHeader = new String[header.length + 2];
+            rejectedHeader[0] = REJECTED_LINE_COLUMN;
+            rejectedHeader[1] = REJECTED_REASON_COLUMN;
+            System.arraycopy(header, 0, rejectedHeader, 2, header.length);
+            rejectedRowsWriter.writeRecord(rejectedHeader);
+
+            // The reader hands the chunks to the parsers, and their results to the writer in order
+            final ExecutorService chunkParsers = Executors.newFixedThreadPool(PARSER_COUNT);
+            parsers = chunkParsers;
+            final BlockingQueue<Future<ParsedChunk>> pendingChunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+            readerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readChunks(csvReader, columnIndexes, chunkParsers, pendingChunks);
+                }
+            }, "csv-import-reader");
+            readerThread.start();
+
+            int rowsImported = 0;
+            int rowsRejected = 0;
+            while (true) {
+                ParsedChunk chunk = takeChunk(pendingChunks);
+                if (chunk == null) {
+                    break;
+                }
+                rowsImported += writeChunk(chunk, rejectedRowsWriter);
+                rowsRejected += chunk.rejectedRecords.size();
+                if (listener != null) {
+                    final long bytesRead = chunk.bytesRead;
+                    final ImportResult progress = new ImportResult(rowsImported, rowsRejected, rejectedRowsFile);
+                    MAIN_HANDLER.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onImportProgress(bytesRead, totalBytes, progress);
+                        }
+                    });
+                }
+            }
+            return new ImportResult(rowsImported, rowsRejected, rejectedRowsFile);
+        } finally {
+            if (readerThread != null) {
+                // Stops the reader if the writer failed
+                readerThread.interrupt();
+            }
+            if (parsers != null) {
+                parsers.shutdownNow();
+            }
+            if (rejectedRowsWriter != null) {
+                rejectedRowsWriter.close();
+            }
+            csvReader.close();
+        }
+    }
+
+    /**
+     * Return the index in the header of each of the {@link #CSV_COLUMNS}.
+     *
+     * @throws IOException if a column is missing.
+     */
+    private static int[] getColumnIndexes(String[] header) throws IOException {
+        List<String> headerColumns = new ArrayList<>(header.length);
+        for (String column : header) {
+            headerColumns.add(column.trim().toLowerCase(Locale.US));
+        }
+        int[] columnIndexes = new int[CSV_COLUMNS.length];
+        for (int i = 0; i < CSV_COLUMNS.length; i++) {
+            columnIndexes[i] = headerColumns.indexOf(CSV_COLUMNS[i]);
+            if (columnIndexes[i] < 0) {
+                throw new IOException("The header has no " + CSV_COLUMNS[i] + " column");
+            }
+        }
+        return columnIndexes;
+    }
+
+    /**
+     * The records of a chunk as read from the file.
+     */
+    private static class RawChunk {
+        final List<String[]> records = new ArrayList<>(CHUNK_SIZE);
+        final List<Long> lineNumbers = new ArrayList<>(CHUNK_SIZE);
+        long bytesRead;
+    }
+
+    /**
+     * The records of a chunk, parsed.
+     */
+    private static class ParsedChunk {
+        final List<ContentValues> rows = new ArrayList<>(CHUNK_SIZE);
+        final List<Long> rowLineNumbers = new ArrayList<>(CHUNK_SIZE);
+        final List<String[]> rowRecords = new ArrayList<>(CHUNK_SIZE);
+        final List<String[]> rejectedRecords = new ArrayList<>();
+        long bytesRead;
+
+        void reject(long lineNumber, String reason, String[] record) {
+            String[] rejectedRecord = new String[record.length + 2];
+            rejectedRecord[0] = String.valueOf(lineNumber);
+            rejectedRecord[1] = reason;
+            System.arraycopy(record, 0, rejectedRecord, 2, record.length);
+            rejectedRecords.add(rejectedRecord);
+        }
+    }
+
+    /**
+     * Read the records in chunks, parse each chunk on the parsers and queue its future result.
+     * The queue is ended with a null chunk, or with a failed future if the file can't be read.
+     * Runs on the reader thread.
+     */
+    private static void readChunks(CsvReader csvReader, final int[] columnIndexes, ExecutorService parsers,
+                                   BlockingQueue<Future<ParsedChunk>> pendingChunks) {
+        try {
+            while (true) {
+                final RawChunk rawChunk = new RawChunk();
+                String[] record;
+                while (rawChunk.records.size() < CHUNK_SIZE && (record = csvReader.readRecord()) != null) {
+                    rawChunk.records.add(record);
+                    rawChunk.lineNumbers.add(csvReader.getRecordLineNumber());
+                }
+                rawChunk.bytesRead = csvReader.getBytesRead();
+                if (rawChunk.records.isEmpty()) {
+                    break;
+                }
+                // Blocks while too many chunks are waiting for the writer
+                pendingChunks.put(parsers.submit(new Callable<ParsedChunk>() {
+                    @Override
+                    public ParsedChunk call() {
+                        return parseChunk(rawChunk, columnIndexes);
+                    }
+                }));
+            }
+            pendingChunks.put(newEndFuture(null));
+        } catch (IOException e) {
+            try {
+                pendingChunks.put(newEndFuture(e));
+            } catch (InterruptedException interrupted) {
+                // The writer has stopped already
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // The writer has stopped
+        }
+    }
+
+    /**
+     * Return the completed future that ends the queue of chunks.
+     *
+     * @param failure The reason the reader stopped before the end of the file, or null.
+     */
+    private static Future<ParsedChunk> newEndFuture(@Nullable final IOException failure) {
+        FutureTask<ParsedChunk> future = new FutureTask<>(new Callable<ParsedChunk>() {
+            @Override
+            public ParsedChunk call() throws IOException {
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * Wait for the next chunk in the order of the file.
+     *
+     * @return the chunk, or null at the end of the file.
+     */
+    private static ParsedChunk takeChunk(BlockingQueue<Future<ParsedChunk>> pendingChunks) throws IOException {
+        try {
+            return pendingChunks.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Error parsing records", e.getCause());
+        }
+    }
+
+    /**
+     * Parse and validate the records of a chunk with the rules of the provider. Runs on a parser thread.
+     */
+    private static ParsedChunk parseChunk(RawChunk rawChunk, int[] columnIndexes) {
+        ParsedChunk chunk = new ParsedChunk();
+        chunk.bytesRead = rawChunk.bytesRead;
+        for (int i = 0; i < rawChunk.records.size(); i++) {
+            String[] record = rawChunk.records.get(i);
+            long lineNumber = rawChunk.lineNumbers.get(i);
+            try {
+                chunk.rows.add(parseRecord(record, columnIndexes));
+                chunk.rowLineNumbers.add(lineNumber);
+                chunk.rowRecords.add(record);
+            } catch (IllegalArgumentException e) {
+                chunk.reject(lineNumber, e.getMessage(), record);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Return the values of the product of a record.
+     *
+     * @throws IllegalArgumentException with the reason, if the record is not a valid product.
+     */
+    private static ContentValues parseRecord(String[] record, int[] columnIndexes) {
+        String[] fields = new String[CSV_COLUMNS.length];
+        for (int i = 0; i < CSV_COLUMNS.length; i++) {
+            if (columnIndexes[i] >= record.length) {
+                throw new IllegalArgumentException("Missing " + CSV_COLUMNS[i]);
+            }
+            fields[i] = record[columnIndexes[i]];
+        }
+        // The same parsing as the product form
+        ProductInput input = ProductInput.parse(fields[0], fields[1], fields[2], fields[3], fields[4]);
+        switch (input.getError()) {
+            case ProductInput.NO_ERROR:
+                break;
+            case ProductInput.ERROR_BLANK_FIELDS:
+                throw new IllegalArgumentException("Blank field");
+            case ProductInput.ERROR_INVALID_PRICE:
+                throw new IllegalArgumentException("Invalid " + COLUMN_PROD_PRICE);
+            case ProductInput.ERROR_INVALID_QUANTITY:
+                throw new IllegalArgumentException("Invalid " + COLUMN_PROD_QUANTITY);
+            default:
+                throw new IllegalArgumentException("Invalid product");
+        }
+        // The same rules as the provider
+        ProductRules.validateProduct(input.getProductName(), input.getPrice(), input.getQuantity(),
+                input.getSupplierName(), input.getSupplierPhone());
+
+        ContentValues values = new ContentValues(CSV_COLUMNS.length);
+        values.put(COLUMN_PROD_NAME, input.getProductName());
+        values.put(COLUMN_PROD_PRICE, input.getPrice());
+        values.put(COLUMN_PROD_QUANTITY, input.getQuantity());
+        values.put(COLUMN_SUPPLIER_NAME, input.getSupplierName());
+        values.put(COLUMN_SUPPLIER_PHONE, input.getSupplierPhone());
+        return values;
+    }
+
+    /**
+     * Insert the valid rows of the chunk in one transaction and write its rejected records.
+     * If the provider refuses a row of the chunk, the rows are inserted one by one to reject only
+     * the refused ones. Any other error, e.g. a full disk, stops the import. Runs on the writer thread.
+     *
+     * @return the number of inserted rows.
+     */
+    private int writeChunk(ParsedChunk chunk, CsvWriter rejectedRowsWriter) throws IOException {
+        int rowsInserted = 0;
+        if (!chunk.rows.isEmpty()) {
+            try {
+                rowsInserted = contentResolver.bulkInsert(CONTENT_URI,
+                        chunk.rows.toArray(new ContentValues[chunk.rows.size()]));
+            } catch (SQLiteConstraintException | IllegalArgumentException e) {
+                // The chunk is inserted all or nothing, so none of its rows are in the table
+                rowsInserted = insertRows(chunk);
+            }
+        }
+        for (String[] rejectedRecord : chunk.rejectedRecords) {
+            rejectedRowsWriter.writeRecord(rejectedRecord);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Insert the valid rows of the chunk one by one, rejecting the ones the provider refuses.
+     * Any other error stops the import.
+     *
+     * @return the number of inserted rows.
+     */
+    private int insertRows(ParsedChunk chunk) {
+        int rowsInserted = 0;
+        for (int i = 0; i < chunk.rows.size(); i++) {
+            String reason;
+            try {
+                if (contentResolver.insert(CONTENT_URI, chunk.rows.get(i)) != null) {
+                    rowsInserted++;
+                    continue;
+                }
+                reason = "Insertion failed";
+            } catch (SQLiteConstraintException | IllegalArgumentException e) {
+                reason = e.getMessage();
+            }
+            chunk.reject(chunk.rowLineNumbers.get(i), reason, chunk.rowRecords.get(i));
+        }
+        return rowsInserted;
+    }
+}
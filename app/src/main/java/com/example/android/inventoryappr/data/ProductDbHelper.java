@@ -1,24 +1,143 @@
 package com.example.android.inventoryappr.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.example.android.inventoryappr.core.QuantityBuckets;
+import com.example.android.inventoryappr.data.ProductContract.SalesEntry;
+import com.example.android.inventoryappr.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryappr.data.ProductContract.SupplierEntry;
 
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.*;
 
 public class ProductDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 10;
     public static final String DATABASE_NAME = "inventory.db";
 
+    /* Index for lookups and sorting by product name, ignoring case */
+    private static final String INDEX_PRODUCTS_NAME = "idx_products_name";
+    /* Index for the products of a supplier, also sorted by product name within each supplier */
+    private static final String INDEX_PRODUCTS_SUPPLIER_ID = "idx_products_supplier_id";
+    /* Index for filtering and sorting by quantity */
+    private static final String INDEX_PRODUCTS_QUANTITY = "idx_products_quantity";
+    /* Index for sorting by price */
+    private static final String INDEX_PRODUCTS_PRICE = "idx_products_price";
+    /* Index for the products that are low on stock, in the order of their IDs */
+    private static final String INDEX_PRODUCTS_LOW_STOCK = "idx_products_low_stock";
+    /* Index for sorting the suppliers by name, ignoring case */
+    private static final String INDEX_SUPPLIERS_NAME = "idx_suppliers_name";
+
+    /*
+     * Column of the suppliers view with the ID of the supplier row. It has the value of the supplier
+     * ID of the product, but SQLite knows it follows the order of the suppliers name index, so the
+     * products sorted by supplier name and then by this ID are read from the indexes without sorting
+     */
+    static final String COLUMN_SUPPLIER_ROW_ID = "supplier_row_id";
+
+    /*
+     * Selection of the products that are low on stock. The low stock index is partial with this
+     * same condition, and SQLite uses a partial index only for queries with the exact condition.
+     */
+    static final String SQL_LOW_STOCK_SELECTION = COLUMN_STOCK_BUCKET + " <= " + QuantityBuckets.LOW_STOCK_MAX_BUCKET;
+
+    /* Selection of the products that are out of stock, served by the quantity index */
+    static final String SQL_OUT_OF_STOCK_SELECTION = COLUMN_PROD_QUANTITY + " = 0";
+
+    /*
+     * Collation of the product names in the indexes and the sorted queries. NOCASE rather than
+     * LOCALIZED, whose order changes with the locale, so its indexes have to be rebuilt then
+     */
+    static final String NAME_COLLATION = "NOCASE";
+
+    /* Triggers that keep the full-text search table in sync with the products table */
+    private static final String TRIGGER_FTS_INSERT = "trg_products_fts_insert";
+    private static final String TRIGGER_FTS_UPDATE = "trg_products_fts_update";
+    private static final String TRIGGER_FTS_DELETE = "trg_products_fts_delete";
+    private static final String TRIGGER_FTS_SUPPLIER_UPDATE = "trg_suppliers_fts_update";
+
+    /* Triggers that keep the inventory totals of the summary table up to date */
+    private static final String TRIGGER_SUMMARY_INSERT = "trg_products_summary_insert";
+    private static final String TRIGGER_SUMMARY_UPDATE = "trg_products_summary_update";
+    private static final String TRIGGER_SUMMARY_DELETE = "trg_products_summary_delete";
+
+    /* Triggers that keep the stock bucket of the products in line with their quantities */
+    private static final String TRIGGER_STOCK_BUCKET_INSERT = "trg_products_stock_bucket_insert";
+    private static final String TRIGGER_STOCK_BUCKET_UPDATE = "trg_products_stock_bucket_update";
+
+    /* Trigger that increments the version of a product on every change of it */
+    private static final String TRIGGER_VERSION_UPDATE = "trg_products_version_update";
+
+    /* Index for the sales ledger entries of a product within a time range */
+    private static final String INDEX_SALES_PRODUCT_TIME = "idx_sales_product_time";
+
+    /* Trigger that adds an entry to the sales ledger for every change of a product quantity */
+    private static final String TRIGGER_SALES_LEDGER = "trg_products_sales_ledger";
+
+    /* Triggers that reject the changes of the sales ledger entries, which is append-only */
+    private static final String TRIGGER_SALES_NO_UPDATE = "trg_sales_no_update";
+    private static final String TRIGGER_SALES_NO_DELETE = "trg_sales_no_delete";
+
+    /* SQL expression of the current time in milliseconds since the epoch, the Unix epoch being Julian day 2440587.5 */
+    private static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /* Name of the old products table while it's migrated to version 4 */
+    private static final String OLD_TABLE_NAME = "products_old";
+
+    /* SQLite default number of WAL pages after which the database is checkpointed */
+    public static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /* Checkpoint modes for {@link #checkpoint(String)} */
+    public static final String CHECKPOINT_PASSIVE = "PASSIVE";
+    public static final String CHECKPOINT_FULL = "FULL";
+    public static final String CHECKPOINT_TRUNCATE = "TRUNCATE";
+
+    /* Number of WAL pages after which the database is checkpointed automatically, 0 disables it */
+    private final int walAutoCheckpointPages;
+
     /**
      * Constructs a new instance of {@link ProductDbHelper}.
      *
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
+        this(context, DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper}.
+     *
+     * @param context                of the app
+     * @param walAutoCheckpointPages Number of WAL pages after which the database is checkpointed
+     *                               automatically. 0 or less disables automatic checkpoints, then
+     *                               {@link #checkpoint(String)} has to be called by the app.
+     */
+    public ProductDbHelper(Context context, int walAutoCheckpointPages) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+        // Readers work on their own connections and see the last committed state,
+        // so they don't wait for the writer and the writer doesn't wait for them
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * This method is called when the database connection is being configured,
+     * before the database is created, upgraded or opened.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Products must reference existing suppliers, and suppliers in use can't be deleted
+        db.setForeignKeyConstraintsEnabled(true);
+        // In WAL mode NORMAL is still safe from corruption, and commits don't wait for fsync
+        db.execSQL("PRAGMA synchronous = NORMAL;");
+        // The pragma returns the new value, so it has to be run as a query
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + Math.max(walAutoCheckpointPages, 0) + ";", null);
     }
 
     /**
@@ -26,23 +145,375 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createSuppliersTable(db);
+        createSupplierIndexes(db);
+        createProductsTable(db);
+        createProductIndexes(db);
+        createSuppliersView(db);
+        createProductSearch(db);
+        createSummary(db);
+        createStockBuckets(db);
+        createSalesLedger(db);
+        createRowVersions(db);
+    }
+
+    /**
+     * This is called when the database needs to be upgraded.
+     * Each step migrates the schema by one version, so the steps fall through to the next one.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        switch (oldVersion) {
+            case 1:
+                // Version 2 added the secondary indexes and version 3 the full-text search table.
+                // Both are created again with the products table of version 4.
+            case 2:
+            case 3:
+                // Version 4 moves the suppliers into their own table
+                migrateSuppliers(db);
+            case 4:
+                // Version 5 adds the summary table of the inventory totals
+                createSummary(db);
+            case 5:
+                // Version 6 adds the stock bucket column. The view selects all the product
+                // columns since then, so it's created again to include the new column
+                db.execSQL("DROP VIEW IF EXISTS " + SUPPLIERS_VIEW_NAME + ";");
+                createSuppliersView(db);
+                createStockBuckets(db);
+            case 6:
+                // Version 7 compares the product names ignoring case, as the sorted list does,
+                // and adds the price index
+                db.execSQL("DROP INDEX IF EXISTS " + INDEX_PRODUCTS_NAME + ";");
+                db.execSQL("DROP INDEX IF EXISTS " + INDEX_PRODUCTS_SUPPLIER_ID + ";");
+                createProductIndexes(db);
+            case 7:
+                // Version 8 adds the sales ledger. There is no history of the earlier changes
+                createSalesLedger(db);
+            case 8:
+                // Version 9 adds the version column for the conditional updates
+                createRowVersions(db);
+            case 9:
+                // Version 10 sorts the products by supplier name, with the supplier name index
+                // and the supplier row ID in the view
+                createSupplierIndexes(db);
+                db.execSQL("DROP VIEW IF EXISTS " + SUPPLIERS_VIEW_NAME + ";");
+                createSuppliersView(db);
+        }
+    }
+
+    /**
+     * Copy the content of the write-ahead log back into the database file.
+     * Useful when automatic checkpoints are disabled, or to shrink the log after a big import.
+     *
+     * @param mode One of {@link #CHECKPOINT_PASSIVE}, {@link #CHECKPOINT_FULL} or {@link #CHECKPOINT_TRUNCATE}.
+     */
+    public void checkpoint(String mode) {
+        if (!CHECKPOINT_PASSIVE.equals(mode) && !CHECKPOINT_FULL.equals(mode) && !CHECKPOINT_TRUNCATE.equals(mode)) {
+            throw new IllegalArgumentException("Unknown checkpoint mode " + mode);
+        }
+        // The pragma returns its outcome as a row, which must be read for the pragma to run
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(" + mode + ");", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Create the suppliers table. A supplier is identified by its name and phone number together.
+     */
+    private void createSuppliersTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + " TEXT NOT NULL, "
+                + "UNIQUE (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE + "));");
+    }
+
+    /**
+     * Create the index of the suppliers by name, which the supplier sort order of the product list
+     * reads the suppliers from.
+     */
+    private void createSupplierIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SUPPLIERS_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " COLLATE " + NAME_COLLATION + ");");
+    }
+
+    /**
+     * Create the products table, which references the suppliers table.
+    private void createProductsTable(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the products table
         String SQL_CREATE_PRODUCTS_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
                 + COLUMN_PROD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + COLUMN_PROD_NAME + " TEXT NOT NULL, "
                 + COLUMN_PROD_PRICE + " INTEGER NOT NULL, "
                 + COLUMN_PROD_QUANTITY + " INTEGER NOT NULL, "
-                + COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
-                + COLUMN_SUPPLIER_PHONE + " TEXT NOT NULL);";
+                + COLUMN_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                + SupplierEntry.TABLE_NAME + "(" + SupplierEntry.COLUMN_SUPPLIER_ID + "));";
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * Create the view of the products with the name and phone number of their suppliers.
+     * SQLite flattens the view into the queries on it, so they still use the indexes of both tables.
+     * The view selects all the columns of the products table, including the columns added to it later.
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to be done here.
+    private void createSuppliersView(SQLiteDatabase db) {
+        db.execSQL("CREATE VIEW " + SUPPLIERS_VIEW_NAME + " AS SELECT "
+                + TABLE_NAME + ".*, "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_ID + " AS " + COLUMN_SUPPLIER_ROW_ID + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + " AS " + COLUMN_SUPPLIER_PHONE
+                + " FROM " + TABLE_NAME + " INNER JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + TABLE_NAME + "." + COLUMN_SUPPLIER_ID + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_ID + ";");
+    }
+
+    /**
+     * Migrate the products table of versions 1 to 3, with the supplier name and phone number on
+     * every row, to version 4. Each distinct supplier is added to the suppliers table once, and
+     * the products table is rebuilt with references to them, keeping the product IDs.
+     */
+    private void migrateSuppliers(SQLiteDatabase db) {
+        createSuppliersTable(db);
+        db.execSQL("INSERT OR IGNORE INTO " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE + ") "
+                + "SELECT " + COLUMN_SUPPLIER_NAME + ", " + COLUMN_SUPPLIER_PHONE
+                + " FROM " + TABLE_NAME + " ORDER BY " + COLUMN_PROD_ID + ";");
+
+        // SQLite can't drop columns, so the products are copied into a new table
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " RENAME TO " + OLD_TABLE_NAME + ";");
+        db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME + ";");
+        createProductsTable(db);
+        db.execSQL("INSERT INTO " + TABLE_NAME + " ("
+                + COLUMN_PROD_ID + ", " + COLUMN_PROD_NAME + ", " + COLUMN_PROD_PRICE + ", "
+                + COLUMN_PROD_QUANTITY + ", " + COLUMN_SUPPLIER_ID + ") "
+                + "SELECT p." + COLUMN_PROD_ID + ", p." + COLUMN_PROD_NAME + ", p." + COLUMN_PROD_PRICE + ", "
+                + "p." + COLUMN_PROD_QUANTITY + ", s." + SupplierEntry.COLUMN_SUPPLIER_ID
+                + " FROM " + OLD_TABLE_NAME + " p INNER JOIN " + SupplierEntry.TABLE_NAME + " s"
+                + " ON s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " = p." + COLUMN_SUPPLIER_NAME
+                + " AND s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = p." + COLUMN_SUPPLIER_PHONE + ";");
+        // Keep the IDs of deleted products from being reused
+        db.execSQL("UPDATE sqlite_sequence SET seq = (SELECT seq FROM sqlite_sequence WHERE name = '"
+                + OLD_TABLE_NAME + "') WHERE name = '" + TABLE_NAME + "';");
+        // Dropping the old table drops its indexes and triggers too
+        db.execSQL("DROP TABLE " + OLD_TABLE_NAME + ";");
+
+        createProductIndexes(db);
+        createSuppliersView(db);
+        createProductSearch(db);
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + "(docid, " + COLUMN_PROD_NAME + ", " + COLUMN_SUPPLIER_NAME + ") "
+                + "SELECT " + COLUMN_PROD_ID + ", " + COLUMN_PROD_NAME + ", " + COLUMN_SUPPLIER_NAME
+                + " FROM " + SUPPLIERS_VIEW_NAME + ";");
+    }
+
+    /**
+     * Create the secondary indexes of the products table. Each sort order of the product list
+     * (see {@link ProductContract.ProductEntry#getSortKeyColumns(String)}) is the order of one of
+     * them, the product ID being the last column of every index, so the list is never sorted.
+     * The names use the same collation as the sorted queries, otherwise SQLite can't use the index.
+     */
+    private void createProductIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCTS_NAME
+                + " ON " + TABLE_NAME + " (" + COLUMN_PROD_NAME + " COLLATE " + NAME_COLLATION + ");");
+        // Also keeps the foreign key checks on supplier deletes from scanning the products table
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCTS_SUPPLIER_ID
+                + " ON " + TABLE_NAME + " (" + COLUMN_SUPPLIER_ID + ", "
+                + COLUMN_PROD_NAME + " COLLATE " + NAME_COLLATION + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCTS_QUANTITY
+                + " ON " + TABLE_NAME + " (" + COLUMN_PROD_QUANTITY + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCTS_PRICE
+                + " ON " + TABLE_NAME + " (" + COLUMN_PROD_PRICE + ");");
+    }
+
+    /**
+     * Create the full-text search table over the product and supplier names, and the triggers
+     * that keep it in sync with the products and suppliers tables. The supplier names are no
+     * longer columns of the products table, so the search table keeps its own copy of the names.
+     */
+    private void createProductSearch(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                + COLUMN_PROD_NAME + ", " + COLUMN_SUPPLIER_NAME + ");");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_INSERT + " AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + FTS_TABLE_NAME + "(docid, " + COLUMN_PROD_NAME + ", " + COLUMN_SUPPLIER_NAME + ") "
+                + "SELECT new." + COLUMN_PROD_ID + ", new." + COLUMN_PROD_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_ID + " = new." + COLUMN_SUPPLIER_ID + "; "
+                + "END;");
+        // Only changes of the product name or supplier touch the search table, quantity updates don't
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_UPDATE + " AFTER UPDATE OF "
+                + COLUMN_PROD_NAME + ", " + COLUMN_SUPPLIER_ID + " ON " + TABLE_NAME + " BEGIN "
+                + "UPDATE " + FTS_TABLE_NAME + " SET " + COLUMN_PROD_NAME + " = new." + COLUMN_PROD_NAME + ", "
+                + COLUMN_SUPPLIER_NAME + " = (SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_ID + " = new." + COLUMN_SUPPLIER_ID + ")"
+                + " WHERE docid = new." + COLUMN_PROD_ID + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_DELETE + " AFTER DELETE ON " + TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + COLUMN_PROD_ID + "; "
+                + "END;");
+        // Renaming a supplier updates the search rows of its products
+        db.execSQL("CREATE TRIGGER " + TRIGGER_FTS_SUPPLIER_UPDATE + " AFTER UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + FTS_TABLE_NAME + " SET " + COLUMN_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " WHERE docid IN (SELECT " + COLUMN_PROD_ID + " FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_SUPPLIER_ID + " = new." + SupplierEntry.COLUMN_SUPPLIER_ID + "); "
+                + "END;");
+    }
+
+    /**
+     * Create the summary table with the inventory totals, and the triggers that keep it up to date.
+     * The table has a single row, which every change of the products adjusts by the difference,
+     * so reading the totals doesn't depend on the number of products. The row starts with the
+     * totals of the products already in the table.
+     */
+    private void createSummary(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry._ID + " INTEGER PRIMARY KEY CHECK (" + SummaryEntry._ID + " = " + SummaryEntry.SUMMARY_ID + "), "
+                + SummaryEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry._ID + ", " + SummaryEntry.COLUMN_PRODUCT_COUNT + ", "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + ", " + SummaryEntry.COLUMN_TOTAL_VALUE + ") "
+                + "SELECT " + SummaryEntry.SUMMARY_ID + ", COUNT(*), "
+                + "IFNULL(SUM(" + COLUMN_PROD_QUANTITY + "), 0), "
+                + "IFNULL(SUM(" + COLUMN_PROD_PRICE + " * " + COLUMN_PROD_QUANTITY + "), 0)"
+                + " FROM " + TABLE_NAME + ";");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_INSERT + " AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_PRODUCT_COUNT + " = " + SummaryEntry.COLUMN_PRODUCT_COUNT + " + 1, "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " = " + SummaryEntry.COLUMN_TOTAL_QUANTITY
+                + " + new." + COLUMN_PROD_QUANTITY + ", "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " = " + SummaryEntry.COLUMN_TOTAL_VALUE
+                + " + new." + COLUMN_PROD_PRICE + " * new." + COLUMN_PROD_QUANTITY + "; "
+                + "END;");
+        // Only changes of the price or quantity change the totals, renames don't touch the summary
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_UPDATE + " AFTER UPDATE OF "
+                + COLUMN_PROD_PRICE + ", " + COLUMN_PROD_QUANTITY + " ON " + TABLE_NAME + " BEGIN "
+                + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " = " + SummaryEntry.COLUMN_TOTAL_QUANTITY
+                + " + new." + COLUMN_PROD_QUANTITY + " - old." + COLUMN_PROD_QUANTITY + ", "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " = " + SummaryEntry.COLUMN_TOTAL_VALUE
+                + " + new." + COLUMN_PROD_PRICE + " * new." + COLUMN_PROD_QUANTITY
+                + " - old." + COLUMN_PROD_PRICE + " * old." + COLUMN_PROD_QUANTITY + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SUMMARY_DELETE + " AFTER DELETE ON " + TABLE_NAME + " BEGIN "
+                + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_PRODUCT_COUNT + " = " + SummaryEntry.COLUMN_PRODUCT_COUNT + " - 1, "
+                + SummaryEntry.COLUMN_TOTAL_QUANTITY + " = " + SummaryEntry.COLUMN_TOTAL_QUANTITY
+                + " - old." + COLUMN_PROD_QUANTITY + ", "
+                + SummaryEntry.COLUMN_TOTAL_VALUE + " = " + SummaryEntry.COLUMN_TOTAL_VALUE
+                + " - old." + COLUMN_PROD_PRICE + " * old." + COLUMN_PROD_QUANTITY + "; "
+                + "END;");
+    }
+
+    /**
+     * Add the stock bucket column to the products table, with the triggers that keep it in line
+     * with the quantity and the index of the products that are low on stock. The buckets of the
+     * products already in the table are set right away.
+     */
+    private void createStockBuckets(SQLiteDatabase db) {
+        String bucketOfNewQuantity = buildStockBucketExpression("new." + COLUMN_PROD_QUANTITY);
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN "
+                + COLUMN_STOCK_BUCKET + " INTEGER NOT NULL DEFAULT " + QuantityBuckets.BUCKET_TO_10 + ";");
+        db.execSQL("UPDATE " + TABLE_NAME + " SET "
+                + COLUMN_STOCK_BUCKET + " = " + buildStockBucketExpression(COLUMN_PROD_QUANTITY) + ";");
+        // The row is written again only if its bucket is wrong, so most sales don't change it. The
+        // inserts of the provider write the bucket with the row, the insert trigger only guards
+        // the raw inserts that leave the column out
+        db.execSQL("CREATE TRIGGER " + TRIGGER_STOCK_BUCKET_INSERT + " AFTER INSERT ON " + TABLE_NAME
+                + " WHEN new." + COLUMN_STOCK_BUCKET + " IS NOT " + bucketOfNewQuantity + " BEGIN "
+                + "UPDATE " + TABLE_NAME + " SET " + COLUMN_STOCK_BUCKET + " = " + bucketOfNewQuantity
+                + " WHERE " + COLUMN_PROD_ID + " = new." + COLUMN_PROD_ID + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_STOCK_BUCKET_UPDATE + " AFTER UPDATE OF "
+                + COLUMN_PROD_QUANTITY + ", " + COLUMN_STOCK_BUCKET + " ON " + TABLE_NAME
+                + " WHEN new." + COLUMN_STOCK_BUCKET + " IS NOT " + bucketOfNewQuantity + " BEGIN "
+                + "UPDATE " + TABLE_NAME + " SET " + COLUMN_STOCK_BUCKET + " = " + bucketOfNewQuantity
+                + " WHERE " + COLUMN_PROD_ID + " = new." + COLUMN_PROD_ID + "; "
+                + "END;");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Partial indexes need SQLite 3.8.0. This one holds only the products to reorder, in the
+            // order of the list pages, so a page of them is a range scan of the index without sorting
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCTS_LOW_STOCK
+                    + " ON " + TABLE_NAME + " (" + COLUMN_PROD_ID + ") WHERE " + SQL_LOW_STOCK_SELECTION + ";");
+        } else {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCTS_LOW_STOCK
+                    + " ON " + TABLE_NAME + " (" + COLUMN_STOCK_BUCKET + ");");
+        }
+    }
+
+    /**
+     * Create the sales ledger table, with the trigger that adds an entry for every change of a
+     * product quantity and the index of the entries by product and time. The entry is written by
+     * the statement that changes the quantity, so it's part of the same transaction whichever way
+     * the quantity is changed. The product ID doesn't reference the products table, so the
+     * history of a product is kept after it's deleted.
+     */
+    private void createSalesLedger(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SalesEntry.TABLE_NAME + " ("
+                + SalesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SalesEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + SalesEntry.COLUMN_TIME + " INTEGER NOT NULL);");
+        // The entries of a product in a time range are a range of this index, in the order of their
+        // times, and the rowid at the end of each index entry orders the entries of the same time
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SALES_PRODUCT_TIME
+                + " ON " + SalesEntry.TABLE_NAME + " ("
+                + SalesEntry.COLUMN_PRODUCT_ID + ", " + SalesEntry.COLUMN_TIME + ");");
+        // Writing the same quantity again, or only other columns, doesn't add an entry
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SALES_LEDGER + " AFTER UPDATE OF "
+                + COLUMN_PROD_QUANTITY + " ON " + TABLE_NAME
+                + " WHEN new." + COLUMN_PROD_QUANTITY + " <> old." + COLUMN_PROD_QUANTITY + " BEGIN "
+                + "INSERT INTO " + SalesEntry.TABLE_NAME + " ("
+                + SalesEntry.COLUMN_PRODUCT_ID + ", " + SalesEntry.COLUMN_DELTA + ", " + SalesEntry.COLUMN_TIME + ") "
+                + "VALUES (new." + COLUMN_PROD_ID + ", new." + COLUMN_PROD_QUANTITY + " - old." + COLUMN_PROD_QUANTITY
+                + ", " + SQL_NOW_MILLIS + "); "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SALES_NO_UPDATE + " BEFORE UPDATE ON " + SalesEntry.TABLE_NAME + " BEGIN "
+                + "SELECT RAISE(ABORT, 'The sales ledger is append-only'); "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_SALES_NO_DELETE + " BEFORE DELETE ON " + SalesEntry.TABLE_NAME + " BEGIN "
+                + "SELECT RAISE(ABORT, 'The sales ledger is append-only'); "
+                + "END;");
+    }
+
+    /**
+     * Add the version column to the products table, with the trigger that increments it on every
+     * change of the product columns. Statements that set the version themselves, as the compiled
+     * statements of {@link ProductStatements} do, skip the trigger and its second write of the row.
+     * The stock bucket isn't in the columns of the trigger, it only follows the quantity.
+     */
+    private void createRowVersions(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN "
+                + COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+        db.execSQL("CREATE TRIGGER " + TRIGGER_VERSION_UPDATE + " AFTER UPDATE OF "
+                + COLUMN_PROD_NAME + ", " + COLUMN_PROD_PRICE + ", " + COLUMN_PROD_QUANTITY + ", " + COLUMN_SUPPLIER_ID
+                + " ON " + TABLE_NAME
+                + " WHEN new." + COLUMN_VERSION + " = old." + COLUMN_VERSION + " BEGIN "
+                + "UPDATE " + TABLE_NAME + " SET " + COLUMN_VERSION + " = old." + COLUMN_VERSION + " + 1"
+                + " WHERE " + COLUMN_PROD_ID + " = new." + COLUMN_PROD_ID + "; "
+                + "END;");
+    }
+
+    /**
+     * Build the SQL expression of the stock bucket of a quantity, the same as
+     * {@link QuantityBuckets#bucketOf(int)}.
+     *
+     * @param quantity The SQL expression of the quantity.
+     */
+    private static String buildStockBucketExpression(String quantity) {
+        StringBuilder expression = new StringBuilder("(CASE");
+        int bucket = QuantityBuckets.BUCKET_TO_10;
+        for (int limit = 10; bucket < QuantityBuckets.BUCKET_OTHER; limit *= 10) {
+            expression.append(" WHEN ").append(quantity).append(" < ").append(limit)
+                    .append(" THEN ").append(bucket);
+            bucket++;
+        }
+        return expression.append(" ELSE ").append(QuantityBuckets.BUCKET_OTHER).append(" END)").toString();
     }
 }
@@ -0,0 +1,203 @@
+package com.example.android.inventoryappr.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.inventoryappr.core.CsvWriter;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.EXPORT_JSON_TYPE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.SUPPLIERS_VIEW_NAME;
+
+/**
+ * {@link ProductExportWriter} writes all the products to the pipe opened by
+ * {@link ContentProvider#openPipeHelper(Uri, String, Bundle, Object, ContentProvider.PipeDataWriter)},
+ * as CSV or JSON.
+ * <p>
+ * The products are read in chunks of {@link #CHUNK_SIZE} rows in the order of their IDs, each
+ * chunk continuing after the last ID of the previous one, and each chunk is flushed to the pipe
+ * before the next one is read. So the memory used doesn't depend on the number of products, no
+ * read transaction is held during the whole export, and the reader gets the first rows right
+ * away. Products added during the export are included if their ID comes after the chunk being read.
+ * The quantities include the sales buffered by the provider when each chunk is read.
+ */
+class ProductExportWriter implements ContentProvider.PipeDataWriter<Void> {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = ProductExportWriter.class.getSimpleName();
+
+    /* Number of products read by each query */
+    private static final int CHUNK_SIZE = 500;
+
+    /* Size of the buffer in front of the pipe */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /* The exported columns, in the order of the CSV fields. The CSV can be imported back */
+    private static final String[] EXPORT_COLUMNS = {
+            COLUMN_PROD_ID,
+            COLUMN_PROD_NAME,
+            COLUMN_PROD_PRICE,
+            COLUMN_PROD_QUANTITY,
+            COLUMN_SUPPLIER_NAME,
+            COLUMN_SUPPLIER_PHONE
+    };
+
+    /* Indexes of the columns in EXPORT_COLUMNS */
+    private static final int ID_INDEX = 0;
+    private static final int NAME_INDEX = 1;
+    private static final int PRICE_INDEX = 2;
+    private static final int QUANTITY_INDEX = 3;
+    private static final int SUPPLIER_NAME_INDEX = 4;
+    private static final int SUPPLIER_PHONE_INDEX = 5;
+
+    /* Query of the chunk of products after the given ID */
+    private static final String SQL_CHUNK_SELECTION = COLUMN_PROD_ID + " > ?";
+
+    private final ProductProvider productProvider;
+    private final ProductDbHelper productDbHelper;
+
+    /**
+     * Constructs a new {@link ProductExportWriter}.
+     *
+     * @param productProvider The provider, which adds its buffered sales to the exported quantities.
+     * @param productDbHelper The helper of the database to export.
+     */
+    ProductExportWriter(ProductProvider productProvider, ProductDbHelper productDbHelper) {
+        this.productProvider = productProvider;
+        this.productDbHelper = productDbHelper;
+    }
+
+    /**
+     * Write the products to the pipe. Runs on a background thread of the provider.
+     */
+    @Override
+    public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @NonNull String mimeType,
+                                @Nullable Bundle opts, @Nullable Void args) {
+        // openPipeHelper() closes the pipe when this returns, so the writer is only flushed
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), "UTF-8"), BUFFER_SIZE);
+            int rowsWritten;
+            if (EXPORT_JSON_TYPE.equals(mimeType)) {
+                rowsWritten = writeJson(writer);
+            } else {
+                rowsWritten = writeCsv(writer);
+            }
+            Log.d(LOG_TAG, "TEST: The number of exported rows is " + rowsWritten);
+        } catch (IOException e) {
+            // Usually the reader has closed its end of the pipe
+            Log.e(LOG_TAG, "Error exporting products to " + mimeType, e);
+        }
+    }
+
+    /**
+     * Write the products as CSV, with a header of the column names.
+     *
+     * @return the number of products written.
+     */
+    private int writeCsv(Writer writer) throws IOException {
+        CsvWriter csvWriter = new CsvWriter(writer);
+        csvWriter.writeRecord(EXPORT_COLUMNS);
+        SQLiteDatabase database = productDbHelper.getReadableDatabase();
+        int rowsWritten = 0;
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = queryChunk(database, lastId);
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(ID_INDEX);
+                    csvWriter.writeField(lastId);
+                    csvWriter.writeField(cursor.getString(NAME_INDEX));
+                    csvWriter.writeField(cursor.getLong(PRICE_INDEX));
+                    csvWriter.writeField(cursor.getLong(QUANTITY_INDEX));
+                    csvWriter.writeField(cursor.getString(SUPPLIER_NAME_INDEX));
+                    csvWriter.writeField(cursor.getString(SUPPLIER_PHONE_INDEX));
+                    csvWriter.endRecord();
+                }
+                rowsWritten += cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            // The reader gets each chunk as soon as it's read
+            csvWriter.flush();
+        }
+        csvWriter.flush();
+        return rowsWritten;
+    }
+
+    /**
+     * Write the products as a JSON array of objects named by the column names.
+     *
+     * @return the number of products written.
+     */
+    private int writeJson(Writer writer) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.beginArray();
+        SQLiteDatabase database = productDbHelper.getReadableDatabase();
+        int rowsWritten = 0;
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = queryChunk(database, lastId);
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(ID_INDEX);
+                    jsonWriter.beginObject()
+                            .name(COLUMN_PROD_ID).value(lastId)
+                            .name(COLUMN_PROD_NAME).value(cursor.getString(NAME_INDEX))
+                            .name(COLUMN_PROD_PRICE).value(cursor.getLong(PRICE_INDEX))
+                            .name(COLUMN_PROD_QUANTITY).value(cursor.getLong(QUANTITY_INDEX))
+                            .name(COLUMN_SUPPLIER_NAME).value(cursor.getString(SUPPLIER_NAME_INDEX))
+                            .name(COLUMN_SUPPLIER_PHONE).value(cursor.getString(SUPPLIER_PHONE_INDEX))
+                            .endObject();
+                }
+                rowsWritten += cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            // The reader gets each chunk as soon as it's read
+            jsonWriter.flush();
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+        return rowsWritten;
+    }
+
+    /**
+     * Query the chunk of products that follows the given product ID.
+     */
+    private Cursor queryChunk(final SQLiteDatabase database, final long lastId) {
+        return productProvider.queryWithPendingSales(new ProductProvider.ProductQuery() {
+            @Override
+            public Cursor query() {
+                return database.query(SUPPLIERS_VIEW_NAME, EXPORT_COLUMNS,
+                        SQL_CHUNK_SELECTION, new String[] {String.valueOf(lastId)},
+                        null, null, COLUMN_PROD_ID, String.valueOf(CHUNK_SIZE));
+            }
+        }, -1);
+    }
+}
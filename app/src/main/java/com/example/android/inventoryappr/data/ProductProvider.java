@@ -1,24 +1,94 @@
 package com.example.android.inventoryappr.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
+import android.database.AbstractWindowedCursor;
 import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
 
+import com.example.android.inventoryappr.R;
+import com.example.android.inventoryappr.core.ProductRules;
+import com.example.android.inventoryappr.core.QuantityBuckets;
+import com.example.android.inventoryappr.data.ProductContract.ProductEntry;
+import com.example.android.inventoryappr.data.ProductContract.SalesEntry;
+import com.example.android.inventoryappr.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryappr.data.ProductContract.SupplierEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.example.android.inventoryappr.data.ProductContract.CHANGE_DELETE;
+import static com.example.android.inventoryappr.data.ProductContract.CHANGE_INSERT;
+import static com.example.android.inventoryappr.data.ProductContract.CHANGE_UPDATE;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_CACHE_HITS;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_CACHE_MISSES;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_CACHE_SIZE;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_SELL_COUNT;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_SOLD;
+import static com.example.android.inventoryappr.data.ProductContract.METHOD_ROW_CACHE_STATS;
+import static com.example.android.inventoryappr.data.ProductContract.METHOD_SELL;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_AFTER_ID;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_AFTER_KEY;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_CHANGE;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_FROM;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_LIMIT;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_LOW_STOCK;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_OFFSET;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_OUT_OF_STOCK;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_SORT;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_TO;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_ID;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_VERSION;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_ITEM_TYPE;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_LIST_TYPE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.EXPORT_CSV_TYPE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.EXPORT_JSON_TYPE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.FTS_TABLE_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.SUPPLIERS_VIEW_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.TABLE_NAME;
 
 public class ProductProvider extends ContentProvider {
@@ -28,63 +98,435 @@ public class ProductProvider extends ContentProvider {
     /** Database helper object */
     private ProductDbHelper productDbHelper;
 
+    /**
+     * Content URIs changed by the batch running on the current thread. Null when no batch is
+     * running, so changes are notified right away.
+     */
+    private final ThreadLocal<Set<Uri>> batchNotifications = new ThreadLocal<>();
+
     /** URI matcher code for the content URI for the products table */
     private static final int PRODUCTS = 100;
 
     /** URI matcher code for the content URI for a single product in the products table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI for a full-text search in the products table */
+    private static final int PRODUCTS_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the export of the products table */
+    private static final int PRODUCTS_EXPORT = 103;
+
+    /** URI matcher code for the content URI for the inventory totals */
+    private static final int PRODUCTS_SUMMARY = 104;
+
+    /** URI matcher code for the content URI for the sales ledger of a single product */
+    private static final int PRODUCT_SALES = 105;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 200;
+
+    /** URI matcher code for the content URI for a single supplier in the suppliers table */
+    private static final int SUPPLIER_ID = 201;
+
+    /** URI matcher code for the content URI for the provider metrics */
+    private static final int METRICS = 300;
+
+    /** Maximum number of single product rows kept in {@link #productRowCache} */
+    private static final int MAX_CACHED_ROWS = 64;
+
+    /** Maximum number of operations applied in a batch before the transaction is yielded */
+    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 100;
+
+    /** Time to wait for another thread after yielding the batch transaction, in milliseconds */
+    private static final long SLEEP_AFTER_YIELD_DELAY = 0;
+
+    /** Time the sales are buffered before they are written to the database, in milliseconds */
+    private static final long SALES_FLUSH_DELAY_MILLIS = 300;
+
+    /** Number of buffered sales that has them written to the database right away */
+    private static final int MAX_PENDING_SALES = 64;
+
+    /** SQL query for the quantity of a single product */
+    private static final String SQL_QUERY_QUANTITY = "SELECT " + COLUMN_PROD_QUANTITY
+            + " FROM " + TABLE_NAME + " WHERE " + COLUMN_PROD_ID + " = ?";
+
+    /** Selection of the products matching a full-text MATCH query */
+    private static final String SQL_SEARCH_SELECTION = COLUMN_PROD_ID + " IN (SELECT docid FROM "
+            + FTS_TABLE_NAME + " WHERE " + FTS_TABLE_NAME + " MATCH ?)";
+
+    /** Selection of a single product by its ID */
+    private static final String SQL_PRODUCT_ID_SELECTION = COLUMN_PROD_ID + "=?";
+
+    /** Selection of a single product by its ID, if it still has the given version */
+    private static final String SQL_PRODUCT_VERSION_SELECTION = COLUMN_PROD_ID + "=? AND " + COLUMN_VERSION + "=?";
+
+    /** Selection of the sales ledger entries of a product in a time range, served by the index of both */
+    private static final String SQL_SALES_SELECTION = SalesEntry.COLUMN_PRODUCT_ID + " = ? AND "
+            + SalesEntry.COLUMN_TIME + " >= ? AND " + SalesEntry.COLUMN_TIME + " < ?";
+
+    /** Order of the sales ledger entries, the order of their index */
+    private static final String SQL_SALES_ORDER = SalesEntry.COLUMN_TIME + ", " + SalesEntry._ID;
+
+    /** MIME types of the products export, the first one is the default */
+    private static final String[] EXPORT_TYPES = {EXPORT_CSV_TYPE, EXPORT_JSON_TYPE};
+
+    /** SQL query for the ID of the supplier with the given name and phone number */
+    private static final String SQL_QUERY_SUPPLIER_ID = "SELECT " + SupplierEntry.COLUMN_SUPPLIER_ID
+            + " FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?"
+            + " AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = ?";
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
      * It's common to use NO_MATCH as the input for this case.
      */
     private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    /** The URI patterns by URI matcher code, the names under which the metrics are reported */
+    private static final SparseArray<String> uriPatterns = new SparseArray<>();
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
         // should recognize. All paths added to the UriMatcher have a corresponding code to return
         // when a match is found.
-        uriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS, PRODUCTS);
-        uriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        addUri(ProductContract.PATH_PRODUCTS, PRODUCTS);
+        addUri(ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH + "/*", PRODUCTS_SEARCH);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_EXPORT, PRODUCTS_EXPORT);
+        addUri(ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SUMMARY, PRODUCTS_SUMMARY);
+        addUri(ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_SALES, PRODUCT_SALES);
+        addUri(ProductContract.PATH_SUPPLIERS, SUPPLIERS);
+        addUri(ProductContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        addUri(ProductContract.PATH_METRICS, METRICS);
+    }
+
+    /**
+     * Add the URI pattern to the URI matcher and to the names of the metrics.
+     */
+    private static void addUri(String path, int code) {
+        uriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, path, code);
+        uriPatterns.put(code, path);
     }
 
+    /** Latency, row and error counts of the provider operations */
+    private final ProviderMetrics metrics = new ProviderMetrics(uriPatterns);
+
+    /** The last queried single product rows, so reopening a product doesn't read the database */
+    private final ProductRowCache productRowCache = new ProductRowCache(MAX_CACHED_ROWS);
+
+    /** Compiled statements of the frequent writes, created with the writable database */
+    private ProductStatements statements;
+
+    /** Sales not written to the database yet, see {@link #flushPendingSales()} */
+    private final PendingSales pendingSales = new PendingSales();
+
+    /** Held while buffered sales are written, and while a quantity is loaded into the buffer */
+    private final Object flushLock = new Object();
+
+    /** Background thread that writes the buffered sales */
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /** Whether a write of the buffered sales is scheduled already */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /** Number of writes of buffered sales committed so far, changed under {@link #flushLock} */
+    private volatile long flushCount;
+
+    /** Writes the buffered sales on the background thread */
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            try {
+                flushPendingSales();
+            } catch (RuntimeException e) {
+                // The sales have been given back to the buffer, the next flush writes them
+                Log.e(LOG_TAG, "Error writing the buffered sales", e);
+            }
+        }
+    };
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
         // Create and initialize a ProductDbHelper object to gain access to the inventory database.
-        productDbHelper = new ProductDbHelper(getContext());
+        productDbHelper = new ProductDbHelper(getContext(),
+                getContext().getResources().getInteger(R.integer.wal_autocheckpoint_pages));
         return true;
     }
 
+    /**
+     * Write the buffered sales when the app goes to the background or the system runs low on
+     * memory, because from then on the process may be killed without any other callback.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        flushPendingSales();
+    }
+
+    /**
+     * Write the buffered sales, then close the compiled statements and the database, used by
+     * tests and benchmarks.
+     */
+    @Override
+    public void shutdown() {
+        flushExecutor.shutdown();
+        flushPendingSales();
+        synchronized (this) {
+            if (statements != null) {
+                statements.close();
+                statements = null;
+            }
+        }
+        productDbHelper.close();
+    }
+
+    /**
+     * Return the pool of compiled statements of the writable database, which is opened if needed.
+     */
+    private synchronized ProductStatements getStatements() {
+        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+        if (statements == null || statements.getDatabase() != database) {
+            // The database has been reopened, the old statements can't be used anymore
+            if (statements != null) {
+                statements.close();
+            }
+            statements = new ProductStatements(database);
+        }
+        return statements;
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        final int match = uriMatcher.match(uri);
+        long startNanos = ProviderMetrics.start();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+            // Counting the rows runs the query, so its cost is part of the measured latency
+            rows = cursor.getCount();
+            failed = false;
+            return cursor;
+        } finally {
+            metrics.record(ProviderMetrics.OPERATION_QUERY, match, startNanos, rows, failed);
+        }
+    }
+
+    /**
+     * Helper method for {@link #query(Uri, String[], String, String[], String)}. The products are
+     * read with the buffered sales added, see {@link #queryWithPendingSales(ProductQuery, long)}.
+     */
+    private Cursor query(final int match, final Uri uri, final String[] projection, final String selection,
+                         final String[] selectionArgs, final String sortOrder) {
+        if (match == METRICS) {
+            // The metrics don't come from the database
+            return metrics.toCursor();
+        }
+        if (match != PRODUCTS && match != PRODUCTS_SEARCH && match != PRODUCT_ID) {
+            if (match == PRODUCTS_SUMMARY || match == PRODUCT_SALES) {
+                // The totals and the ledger entries of the buffered sales are made by writing them
+                flushPendingSales();
+            }
+            return queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder);
+        }
+        long productId = match == PRODUCT_ID ? ContentUris.parseId(uri) : -1;
+        if (dependsOnWrittenSales(uri, projection, selection, sortOrder, productId)) {
+            // Which products match or their order depends on the quantities in the database
+            flushPendingSales();
+            return queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder);
+        }
+        return queryWithPendingSales(new ProductQuery() {
+            @Override
+            public Cursor query() {
+                return queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder);
+            }
+        }, productId);
+    }
+
+    /**
+     * A query of product rows from the database, see {@link #queryWithPendingSales(ProductQuery, long)}.
+     */
+    interface ProductQuery {
+
+        /**
+         * Run the query. It may be run more than once.
+         */
+        Cursor query();
+    }
+
+    /**
+     * Run a query of product rows and add the buffered sales to their quantities, so reading
+     * doesn't write the sales. The changes are taken before the rows are read, and the rows are
+     * read again if the changes are written meanwhile, so no sale is missing or counted twice.
+     * Only rows that fit in the first cursor window are read that way, because the next windows
+     * are filled later, when the changes may have been written. Larger results are read after
+     * the buffered sales have been written.
+     *
+     * @param productQuery The query, its columns must be supported by {@link PendingSalesCursor}.
+     * @param productId    The product of all the rows if they have no ID column, otherwise -1.
+     */
+    Cursor queryWithPendingSales(ProductQuery productQuery, long productId) {
+        while (true) {
+            LongSparseArray<Integer> changes;
+            long readFlushCount;
+            synchronized (flushLock) {
+                changes = pendingSales.getUnwrittenChanges();
+                readFlushCount = flushCount;
+            }
+            Cursor cursor = productQuery.query();
+            if (cursor == null || changes.size() == 0) {
+                return cursor;
+            }
+            // Counting the rows fills the first window, the rows must be read before any of the changes is written
+            cursor.getCount();
+            if (!isFullyRead(cursor)) {
+                Log.d(LOG_TAG, "TEST: The rows don't fit in one window, writing the buffered sales first");
+                cursor.close();
+                flushPendingSales();
+                return productQuery.query();
+            }
+            if (readFlushCount == flushCount) {
+                return PendingSalesCursor.wrap(cursor, changes, productId);
+            }
+            // The rows may include some of the changes already, read them again
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check whether all the rows of the cursor have been read from the database already.
+     */
+    private static boolean isFullyRead(Cursor cursor) {
+        if (!(cursor instanceof AbstractWindowedCursor)) {
+            // The rows are in memory, like those of the row cache
+            return true;
+        }
+        CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+        return cursor.getCount() == 0 || (window != null && window.getStartPosition() == 0
+                && window.getNumRows() == cursor.getCount());
+    }
+
+    /**
+     * Check whether a query of products needs the buffered sales written before it, because its
+     * selection, order or columns depend on the quantities beyond what {@link PendingSalesCursor}
+     * can change.
+     *
+     * @param productId The ID of the queried product, or -1 for a query of several products.
+     */
+    private static boolean dependsOnWrittenSales(Uri uri, String[] projection, String selection,
+                                                 String sortOrder, long productId) {
+        if (uri.getBooleanQueryParameter(QUERY_PARAMETER_LOW_STOCK, false)
+                || uri.getBooleanQueryParameter(QUERY_PARAMETER_OUT_OF_STOCK, false)
+                || Arrays.asList(ProductEntry.getSortKeyColumns(uri.getQueryParameter(QUERY_PARAMETER_SORT)))
+                        .contains(COLUMN_PROD_QUANTITY)
+                || mentionsQuantityColumns(selection) || mentionsQuantityColumns(sortOrder)) {
+            return true;
+        }
+        if (projection != null) {
+            for (String column : projection) {
+                // Expressions of the quantity can't be changed, only the columns themselves
+                if (mentionsQuantityColumns(column)
+                        && !COLUMN_PROD_QUANTITY.equals(column) && !COLUMN_STOCK_BUCKET.equals(column)) {
+                    return true;
+                }
+            }
+        }
+        return !PendingSalesCursor.supports(projection, productId);
+    }
+
+    /**
+     * Check whether the SQL fragment refers to the quantity or its stock bucket.
+     */
+    private static boolean mentionsQuantityColumns(String sql) {
+        return sql != null && (sql.contains(COLUMN_PROD_QUANTITY) || sql.contains(COLUMN_STOCK_BUCKET));
+    }
+
+    /**
+     * Query the database for the given URI, which is not {@link #METRICS}.
+     */
+    private Cursor queryDatabase(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder) {
         // Get readable database
         SQLiteDatabase database = productDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
+        // The content URI whose changes the cursor is notified of
+        Uri notificationUri = uri;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        final int match = uriMatcher.match(uri);
+        // The URI matcher has matched the URI to a specific code
         switch (match) {
             case PRODUCTS:
-                // Query to the whole products table
-                cursor = database.query(TABLE_NAME, projection,
-                        selection, selectionArgs,
-                        null, null, sortOrder);
+                // Query to the whole products table (or to a page of it)
+                cursor = queryProducts(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PRODUCTS_SEARCH:
+                // Query to the products matching the search text (or to a page of them)
+                String matchQuery = buildMatchQuery(uri.getLastPathSegment());
+                if (matchQuery == null) {
+                    // Nothing to search for, so nothing matches
+                    selection = DatabaseUtils.concatenateWhere(selection, "0");
+                } else {
+                    selection = DatabaseUtils.concatenateWhere(selection, SQL_SEARCH_SELECTION);
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] {matchQuery});
+                }
+                cursor = queryProducts(database, uri, projection, selection, selectionArgs, sortOrder);
                 break;
             case PRODUCT_ID:
                 // Query for a single product
-                selection = COLUMN_PROD_ID + "=?";
+                long productId = ContentUris.parseId(uri);
+                if (ProductRowCache.supports(projection)) {
+                    cursor = queryProductRow(database, productId, projection);
+                    break;
+                }
+                selection = SQL_PRODUCT_ID_SELECTION;
+                selectionArgs = new String[] {String.valueOf(productId)};
+                cursor = database.query(getProductsTable(projection, selection, sortOrder), projection,
+                        selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case PRODUCTS_SUMMARY:
+                // Query to the single row of inventory totals kept by the database triggers
+                cursor = database.query(SummaryEntry.TABLE_NAME, projection,
+                        selection, selectionArgs,
+                        null, null, sortOrder);
+                // The totals change with any of the products, which notify their own URIs
+                notificationUri = CONTENT_URI;
+                break;
+            case PRODUCT_SALES:
+                // Query to the sales ledger entries of a product in the time range of the URI
+                long salesProductId = Long.parseLong(uri.getPathSegments().get(1));
+                selection = DatabaseUtils.concatenateWhere(selection, SQL_SALES_SELECTION);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] {
+                        String.valueOf(salesProductId),
+                        String.valueOf(parseTimeParameter(uri, QUERY_PARAMETER_FROM, 0)),
+                        String.valueOf(parseTimeParameter(uri, QUERY_PARAMETER_TO, Long.MAX_VALUE))});
+                cursor = database.query(SalesEntry.TABLE_NAME, projection,
+                        selection, selectionArgs,
+                        null, null, sortOrder == null ? SQL_SALES_ORDER : sortOrder);
+                // An entry is added with every change of the quantity, which notifies the product URI
+                notificationUri = ContentUris.withAppendedId(CONTENT_URI, salesProductId);
+                break;
+            case SUPPLIERS:
+                // Query to the whole suppliers table
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection,
+                        selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_ID:
+                // Query for a single supplier
+                selection = SupplierEntry.COLUMN_SUPPLIER_ID + "=?";
                 selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                cursor = database.query(TABLE_NAME ,projection,
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection,
                         selection, selectionArgs,
                         null, null, sortOrder);
                 break;
@@ -94,10 +536,219 @@ public class ProductProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
+    /**
+     * Query a single product through {@link #productRowCache}. On a miss the whole row is read
+     * with the supplier columns, so any later projection of it is answered from the cache.
+     */
+    private Cursor queryProductRow(SQLiteDatabase database, long productId, String[] projection) {
+        Object[] row = productRowCache.get(productId);
+        if (row == null) {
+            // Taken before reading, so a row changed meanwhile isn't cached
+            long loadStamp = productRowCache.startLoad();
+            Cursor cursor = database.query(SUPPLIERS_VIEW_NAME, ProductRowCache.COLUMNS,
+                    SQL_PRODUCT_ID_SELECTION, new String[] {String.valueOf(productId)},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    row = ProductRowCache.readRow(cursor);
+                    productRowCache.put(productId, row, loadStamp);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return ProductRowCache.toCursor(row, projection);
+    }
+
+    /**
+     * Query the products table, applying the filter and paging query parameters of the URI if there are any.
+     */
+    private Cursor queryProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        if (uri.getBooleanQueryParameter(QUERY_PARAMETER_LOW_STOCK, false)) {
+            // Served by the low stock index, which has the same condition
+            selection = DatabaseUtils.concatenateWhere(selection, ProductDbHelper.SQL_LOW_STOCK_SELECTION);
+        }
+        if (uri.getBooleanQueryParameter(QUERY_PARAMETER_OUT_OF_STOCK, false)) {
+            selection = DatabaseUtils.concatenateWhere(selection, ProductDbHelper.SQL_OUT_OF_STOCK_SELECTION);
+        }
+        String sort = uri.getQueryParameter(QUERY_PARAMETER_SORT);
+        String[] sortKeys = getSortKeyExpressions(sort);
+        String afterId = uri.getQueryParameter(QUERY_PARAMETER_AFTER_ID);
+        String limit = getLimitClause(uri);
+        if (afterId != null) {
+            // Keyset pagination: continue right after the last product of the previous page
+            List<String> afterKey = uri.getQueryParameters(QUERY_PARAMETER_AFTER_KEY);
+            if (afterKey.size() != sortKeys.length) {
+                throw new IllegalArgumentException("Paging by " + sort + " requires "
+                        + sortKeys.length + " " + QUERY_PARAMETER_AFTER_KEY + " values");
+            }
+            selection = DatabaseUtils.concatenateWhere(selection, buildKeysetSelection(sortKeys));
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    buildKeysetSelectionArgs(afterKey, parsePagingParameter(afterId)));
+        }
+        if (sort != null || afterId != null || limit != null) {
+            // Pages must follow the order of the keys, which is the order of an index
+            sortOrder = TextUtils.join(", ", sortKeys);
+            sortOrder = sortOrder.isEmpty() ? COLUMN_PROD_ID : sortOrder + ", " + COLUMN_PROD_ID;
+        }
+        return database.query(getProductsTable(projection, selection, sortOrder), projection,
+                selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
+
+    /**
+     * Return the SQL expressions of the sort keys for the given sort query parameter, comparing
+     * the names with the collation of their indexes. The supplier ID is compared through the
+     * supplier row of the view, see {@link ProductDbHelper#COLUMN_SUPPLIER_ROW_ID}.
+     */
+    private static String[] getSortKeyExpressions(String sort) {
+        String[] sortKeys = ProductEntry.getSortKeyColumns(sort);
+        for (int i = 0; i < sortKeys.length; i++) {
+            if (COLUMN_PROD_NAME.equals(sortKeys[i]) || COLUMN_SUPPLIER_NAME.equals(sortKeys[i])) {
+                sortKeys[i] = sortKeys[i] + " COLLATE " + ProductDbHelper.NAME_COLLATION;
+            } else if (COLUMN_SUPPLIER_ID.equals(sortKeys[i])) {
+                sortKeys[i] = ProductDbHelper.COLUMN_SUPPLIER_ROW_ID;
+            }
+        }
+        return sortKeys;
+    }
+
+    /**
+     * Build the selection of the products after a given one in the order of the sort keys and the
+     * product ID, e.g. "k >= ? AND (k > ? OR (k = ? AND (_id > ?)))" for a single key. The leading
+     * "k >= ?" lets SQLite start the scan of the index of k at the given product.
+     */
+    private static String buildKeysetSelection(String[] sortKeys) {
+        StringBuilder selection = new StringBuilder(COLUMN_PROD_ID + " > ?");
+        for (int i = sortKeys.length - 1; i >= 0; i--) {
+            selection.insert(0, sortKeys[i] + " > ? OR (" + sortKeys[i] + " = ? AND (").append("))");
+        }
+        if (sortKeys.length > 0) {
+            selection.insert(0, sortKeys[0] + " >= ? AND (").append(")");
+        }
+        return selection.toString();
+    }
+
+    /**
+     * Return the arguments of {@link #buildKeysetSelection(String[])} for the given product.
+     *
+     * @param afterKey The values of the sort keys of the product.
+     * @param afterId  The ID of the product.
+     */
+    private static String[] buildKeysetSelectionArgs(List<String> afterKey, long afterId) {
+        List<String> selectionArgs = new ArrayList<>();
+        if (!afterKey.isEmpty()) {
+            selectionArgs.add(afterKey.get(0));
+        }
+        for (String keyValue : afterKey) {
+            selectionArgs.add(keyValue);
+            selectionArgs.add(keyValue);
+        }
+        selectionArgs.add(String.valueOf(afterId));
+        return selectionArgs.toArray(new String[selectionArgs.size()]);
+    }
+
+    /**
+     * Return the table to query for products. The join with the suppliers table is used only when
+     * the query needs the supplier name or phone number, so list queries of the product columns
+     * read the products table alone.
+     */
+    private static String getProductsTable(String[] projection, String selection, String sortOrder) {
+        boolean needsSuppliers = projection == null
+                || mentionsSupplierColumns(selection) || mentionsSupplierColumns(sortOrder);
+        if (!needsSuppliers) {
+            for (String column : projection) {
+                if (mentionsSupplierColumns(column)) {
+                    needsSuppliers = true;
+                    break;
+                }
+            }
+        }
+        return needsSuppliers ? SUPPLIERS_VIEW_NAME : TABLE_NAME;
+    }
+
+    /**
+     * Check whether the SQL fragment refers to the supplier name or phone number.
+     */
+    private static boolean mentionsSupplierColumns(String sql) {
+        return sql != null && (sql.contains(COLUMN_SUPPLIER_NAME) || sql.contains(COLUMN_SUPPLIER_PHONE));
+    }
+
+    /**
+     * Turn the search text into a full-text MATCH query in which every word of the text
+     * has to match the beginning of a word of the product or supplier name.
+     *
+     * @return the MATCH query, or null if the text has no words.
+     */
+    private static String buildMatchQuery(String searchText) {
+        if (searchText == null) {
+            return null;
+        }
+        // Drop the characters that have a special meaning in MATCH queries
+        String[] words = searchText.replaceAll("[^\\p{L}\\p{N}]+", " ").trim().split(" ");
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                matchQuery.append(matchQuery.length() == 0 ? "" : " ").append(word).append('*');
+            }
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Return the LIMIT clause built from the paging query parameters of the URI, or null if the
+     * URI has no limit.
+     */
+    private static String getLimitClause(Uri uri) {
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+        String offset = uri.getQueryParameter(QUERY_PARAMETER_OFFSET);
+        if (offset == null) {
+            return String.valueOf(parsePagingParameter(limit));
+        }
+        // The "offset,limit" form is what SQLiteDatabase.query() accepts
+        return parsePagingParameter(offset) + "," + parsePagingParameter(limit);
+    }
+
+    /**
+     * Parse a numeric paging query parameter.
+     */
+    private static long parsePagingParameter(String value) {
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new IllegalArgumentException("Invalid paging parameter " + value);
+    }
+
+    /**
+     * Parse a time query parameter of the sales ledger URI, in milliseconds since the epoch.
+     *
+     * @param defaultTime The time if the URI doesn't have the parameter.
+     */
+    private static long parseTimeParameter(Uri uri, String name, long defaultTime) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultTime;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time parameter " + name + "=" + value);
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -110,11 +761,85 @@ public class ProductProvider extends ContentProvider {
                 return CONTENT_LIST_TYPE;
             case PRODUCT_ID:
                 return CONTENT_ITEM_TYPE;
+            case PRODUCTS_SEARCH:
+                return CONTENT_LIST_TYPE;
+            case PRODUCTS_EXPORT:
+                return EXPORT_TYPES[0];
+            case PRODUCTS_SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_SALES:
+                return SalesEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case METRICS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + ProductContract.CONTENT_AUTHORITY
+                        + "/" + ProductContract.PATH_METRICS;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Return the MIME types of the files the URI can be opened as, that match the filter.
+     */
+    @Nullable
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        if (uriMatcher.match(uri) != PRODUCTS_EXPORT) {
+            return null;
+        }
+        ArrayList<String> streamTypes = new ArrayList<>();
+        for (String exportType : EXPORT_TYPES) {
+            if (ClipDescription.compareMimeTypes(exportType, mimeTypeFilter)) {
+                streamTypes.add(exportType);
+            }
+        }
+        return streamTypes.isEmpty() ? null : streamTypes.toArray(new String[streamTypes.size()]);
+    }
+
+    /**
+     * Open the products export as the first of its MIME types that matches the filter. The rows
+     * are written to a pipe by a background thread while the caller reads them.
+     */
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter,
+                                                  @Nullable Bundle opts) throws FileNotFoundException {
+        String[] streamTypes = getStreamTypes(uri, mimeTypeFilter);
+        if (streamTypes == null) {
+            // Not an export, or not as the requested type
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        return new AssetFileDescriptor(openExport(uri, streamTypes[0], opts),
+                0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Open the products export as CSV. Only reading is supported.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (uriMatcher.match(uri) != PRODUCTS_EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export of " + uri + " is read only");
+        }
+        return openExport(uri, EXPORT_TYPES[0], null);
+    }
+
+    /**
+     * Start writing the products export of the given MIME type to a new pipe.
+     *
+     * @return the read side of the pipe.
+     */
+    private ParcelFileDescriptor openExport(Uri uri, String mimeType, Bundle opts) throws FileNotFoundException {
+        return openPipeHelper(uri, mimeType, opts, null, new ProductExportWriter(this, productDbHelper));
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
@@ -122,9 +847,26 @@ public class ProductProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
         final int match = uriMatcher.match(uri);
+        long startNanos = ProviderMetrics.start();
+        Uri newUri = null;
+        try {
+            newUri = insert(match, uri, values);
+            return newUri;
+        } finally {
+            metrics.record(ProviderMetrics.OPERATION_INSERT, match, startNanos, newUri == null ? 0 : 1, newUri == null);
+        }
+    }
+
+    /**
+     * Helper method for {@link #insert(Uri, ContentValues)}.
+     */
+    private Uri insert(int match, Uri uri, ContentValues values) {
+        // A new product has no buffered sales, so they aren't written first
         switch (match) {
             case PRODUCTS:
                 return insertProduct(uri, values);
+            case SUPPLIERS:
+                return insertSupplier(uri, values);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -136,37 +878,23 @@ public class ProductProvider extends ContentProvider {
      */
     private Uri insertProduct(Uri uri, ContentValues values) {
         // Sanity checking the attributes in ContentValues
-        // Check that the product name is not null
-        String productName = values.getAsString(COLUMN_PROD_NAME);
-        if (productName == null) {
-            throw new IllegalArgumentException("Product requires a name");
-        }
-        // Check that the price is not null and valid
-        Integer productPrice = values.getAsInteger(COLUMN_PROD_PRICE);
-        if (productPrice == null || productPrice < 0) {
-            throw new IllegalArgumentException("Product requires a valid price");
-        }
-        // Check that the quantity is not null and valid
-        Integer productQuantity = values.getAsInteger(COLUMN_PROD_QUANTITY);
-        if (productQuantity == null || productQuantity < 0) {
-            throw new IllegalArgumentException("Product requires a valid quantity");
-        }
-        // Check that the supplier name is not null
-        String supplierName = values.getAsString(COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
-            throw new IllegalArgumentException("Supplier requires a name");
-        }
-        // Check that the supplier phone number is not null
-        String supplierPhone = values.getAsString(COLUMN_SUPPLIER_NAME);
-        if (supplierPhone == null) {
-            throw new IllegalArgumentException("Supplier requires a phone number");
-        }
+        validateProduct(values);
 
         // Get writable database
-        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+        ProductStatements statements = getStatements();
+        SQLiteDatabase database = statements.getDatabase();
 
-        // Insert the new row, returning the primary key value (_id in this case) of the new row
-        long newProductId = database.insert(TABLE_NAME, null, values);
+        long newProductId;
+        SQLiteStatement insertStatement = statements.acquire(ProductStatements.INSERT_PRODUCT);
+        database.beginTransaction();
+        try {
+            // Insert the new row, returning the primary key value (_id in this case) of the new row
+            newProductId = insertProductRow(database, insertStatement, resolveSupplier(database, values, null));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statements.release(ProductStatements.INSERT_PRODUCT, insertStatement);
+        }
         Log.d(LOG_TAG, "TEST: The new product's row ID is " + String.valueOf(newProductId));
 
         // If the ID is -1, then the insertion failed. Log an error and return null.
@@ -174,31 +902,621 @@ public class ProductProvider extends ContentProvider {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
-        // Notify all listeners that the data has changed for the product content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (values.containsKey(COLUMN_SUPPLIER_NAME)) {
+            // The supplier may have been added
+            notifyChange(SupplierEntry.CONTENT_URI);
+        }
+        // Notify all listeners that the new product has been inserted
+        notifyChange(buildRowChangeUri(newProductId, CHANGE_INSERT));
         // Return the new product Uri
         return ContentUris.withAppendedId(uri, newProductId);
     }
 
+    /**
+     * Insert a product row with the given values, which must have a supplier ID. The compiled insert
+     * statement is used when the values have exactly its columns, otherwise SQLiteDatabase builds one.
+     * The stock bucket is written with the row, so the insert trigger of the bucket doesn't write
+     * the row a second time.
+     *
+     * @return the ID of the new row, or -1 if the row breaks a constraint of the table, e.g. for a
+     * missing supplier. The other errors, e.g. a full disk, are thrown.
+     */
+    private static long insertProductRow(SQLiteDatabase database, SQLiteStatement insertStatement,
+                                         ContentValues values) {
+        int quantity = values.getAsInteger(COLUMN_PROD_QUANTITY);
+        try {
+            if (values.size() != ProductStatements.INSERT_PRODUCT_COLUMNS.length
+                    || !values.containsKey(COLUMN_SUPPLIER_ID)) {
+                // The row carries other columns, let SQLiteDatabase build the statement
+                if (!values.containsKey(COLUMN_STOCK_BUCKET)) {
+                    values = new ContentValues(values);
+                    values.put(COLUMN_STOCK_BUCKET, QuantityBuckets.bucketOf(quantity));
+                }
+                return database.insertOrThrow(TABLE_NAME, null, values);
+            }
+            insertStatement.clearBindings();
+            insertStatement.bindString(1, values.getAsString(COLUMN_PROD_NAME));
+            insertStatement.bindLong(2, values.getAsInteger(COLUMN_PROD_PRICE));
+            insertStatement.bindLong(3, quantity);
+            insertStatement.bindLong(4, values.getAsLong(COLUMN_SUPPLIER_ID));
+            insertStatement.bindLong(5, QuantityBuckets.bucketOf(quantity));
+            return insertStatement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Check that the given content values describe a complete and valid product.
+     * Throws {@link IllegalArgumentException} if any of the required attributes is missing or invalid.
+     */
+    private void validateProduct(ContentValues values) {
+        ProductRules.validateName(values.getAsString(COLUMN_PROD_NAME));
+        ProductRules.validatePrice(values.getAsInteger(COLUMN_PROD_PRICE));
+        ProductRules.validateQuantity(values.getAsInteger(COLUMN_PROD_QUANTITY));
+        // The supplier is given either by its ID or by its name and phone number
+        if (values.getAsLong(COLUMN_SUPPLIER_ID) == null) {
+            validateSupplier(values);
+        }
+    }
+
+    /**
+     * Check that the given content values have a valid supplier name and phone number.
+     * Throws {@link IllegalArgumentException} if any of them is missing.
+     */
+    private void validateSupplier(ContentValues values) {
+        ProductRules.validateSupplierName(values.getAsString(COLUMN_SUPPLIER_NAME));
+        ProductRules.validateSupplierPhone(values.getAsString(COLUMN_SUPPLIER_PHONE));
+    }
+
+    /**
+     * Return the product values with the supplier name and phone number replaced by the ID of
+     * that supplier. The supplier is added if it doesn't exist yet. Values without a supplier
+     * name are returned as they are. Must be called within a transaction.
+     *
+     * @param supplierIds Cache of the supplier IDs already looked up, or null.
+     */
+    private ContentValues resolveSupplier(SQLiteDatabase database, ContentValues values,
+                                          @Nullable Map<String, Long> supplierIds) {
+        if (!values.containsKey(COLUMN_SUPPLIER_NAME)) {
+            return values;
+        }
+        String supplierName = values.getAsString(COLUMN_SUPPLIER_NAME);
+        String supplierPhone = values.getAsString(COLUMN_SUPPLIER_PHONE);
+        String supplierKey = supplierName + '\u0000' + supplierPhone;
+        Long supplierId = supplierIds == null ? null : supplierIds.get(supplierKey);
+        if (supplierId == null) {
+            supplierId = findOrInsertSupplier(database, supplierName, supplierPhone);
+            if (supplierIds != null) {
+                supplierIds.put(supplierKey, supplierId);
+            }
+        }
+        ContentValues resolvedValues = new ContentValues(values);
+        resolvedValues.remove(COLUMN_SUPPLIER_NAME);
+        resolvedValues.remove(COLUMN_SUPPLIER_PHONE);
+        resolvedValues.put(COLUMN_SUPPLIER_ID, supplierId);
+        return resolvedValues;
+    }
+
+    /**
+     * Return the ID of the supplier with the given name and phone number, adding the supplier
+     * if it doesn't exist yet.
+     */
+    private long findOrInsertSupplier(SQLiteDatabase database, String supplierName, String supplierPhone) {
+        try {
+            return DatabaseUtils.longForQuery(database, SQL_QUERY_SUPPLIER_ID,
+                    new String[] {supplierName, supplierPhone});
+        } catch (SQLiteDoneException e) {
+            // There is no such supplier yet
+            ContentValues supplierValues = new ContentValues();
+            supplierValues.put(SupplierEntry.COLUMN_SUPPLIER_NAME, supplierName);
+            supplierValues.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, supplierPhone);
+            return database.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplierValues);
+        }
+    }
+
+    /**
+     * Insert a supplier into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        // Sanity checking the attributes in ContentValues
+        validateSupplier(values);
+
+        // Get writable database
+        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+
+        // Insert the new row. It fails if the same supplier exists already
+        long newSupplierId = database.insert(SupplierEntry.TABLE_NAME, null, values);
+        Log.d(LOG_TAG, "TEST: The new supplier's row ID is " + String.valueOf(newSupplierId));
+
+        if (newSupplierId == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        notifyChange(uri);
+        return ContentUris.withAppendedId(uri, newSupplierId);
+    }
+
+    /**
+     * Insert several products at once. All the rows are validated before anything is written,
+     * then inserted in a single transaction through one compiled statement, and listeners are
+     * notified only once at the end. Return the number of inserted rows. If a row is invalid or
+     * breaks a constraint of the table, no row is inserted, and an {@link IllegalArgumentException}
+     * or a {@link SQLiteConstraintException} is thrown.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] valuesArray) {
+        final int match = uriMatcher.match(uri);
+        long startNanos = ProviderMetrics.start();
+        int rowsInserted = 0;
+        boolean failed = true;
+        try {
+            rowsInserted = bulkInsert(match, uri, valuesArray);
+            failed = false;
+            return rowsInserted;
+        } finally {
+            metrics.record(ProviderMetrics.OPERATION_BULK_INSERT, match, startNanos, rowsInserted, failed);
+        }
+    }
+
+    /**
+     * Helper method for {@link #bulkInsert(Uri, ContentValues[])}.
+     */
+    private int bulkInsert(int match, Uri uri, ContentValues[] valuesArray) {
+        switch (match) {
+            case PRODUCTS:
+                return bulkInsertProducts(uri, valuesArray);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Helper method for {@link #bulkInsert(Uri, ContentValues[])}.
+     */
+    private int bulkInsertProducts(Uri uri, ContentValues[] valuesArray) {
+        // Validate every row first, so a bad row can't leave the table half imported
+        for (ContentValues values : valuesArray) {
+            validateProduct(values);
+        }
+
+        // Get writable database
+        ProductStatements statements = getStatements();
+        SQLiteDatabase database = statements.getDatabase();
+        int rowsInserted = 0;
+        // The rows usually come from a few suppliers, so each of them is looked up only once
+        Map<String, Long> supplierIds = new HashMap<>();
+        SQLiteStatement insertStatement = statements.acquire(ProductStatements.INSERT_PRODUCT);
+        database.beginTransaction();
+        try {
+            for (ContentValues originalValues : valuesArray) {
+                ContentValues values = resolveSupplier(database, originalValues, supplierIds);
+                long newProductId = insertProductRow(database, insertStatement, values);
+                if (newProductId == -1) {
+                    // Roll the whole batch back, the caller can't tell which rows are missing otherwise
+                    throw new SQLiteConstraintException("Failed to insert row " + rowsInserted + " for " + uri);
+                }
+                rowsInserted++;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statements.release(ProductStatements.INSERT_PRODUCT, insertStatement);
+        }
+        Log.d(LOG_TAG, "TEST: The number of bulk inserted rows is " + rowsInserted);
+
+        // Notify all listeners only once for the whole batch
+        if (rowsInserted > 0) {
+            if (!supplierIds.isEmpty()) {
+                notifyChange(SupplierEntry.CONTENT_URI);
+            }
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply the batch of operations in a single transaction. The transaction is yielded on
+     * operations that allow it (and at least every {@link #MAX_OPERATIONS_PER_YIELD_POINT}
+     * operations) so readers are not starved. Change notifications are collected during the
+     * batch and sent once per content URI after the transaction is committed. If an operation
+     * fails after a yield has committed the earlier ones, those are notified anyway.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // A batch may mix URIs, it's recorded as a whole under the URI of its first operation
+        int match = operations.isEmpty() ? UriMatcher.NO_MATCH : uriMatcher.match(operations.get(0).getUri());
+        long startNanos = ProviderMetrics.start();
+        boolean failed = true;
+        // Single product reads skip the row cache until the changed rows are invalidated
+        productRowCache.startWrite();
+        try {
+            ContentProviderResult[] results = applyBatchInTransaction(operations);
+            failed = false;
+            return results;
+        } finally {
+            productRowCache.endWrite();
+            metrics.record(ProviderMetrics.OPERATION_APPLY_BATCH, match, startNanos, operations.size(), failed);
+        }
+    }
+
+    /**
+     * Helper method for {@link #applyBatch(ArrayList)}.
+     */
+    private ContentProviderResult[] applyBatchInTransaction(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Get writable database
+        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+
+        // The operations work on the products with the buffered sales, which aren't written
+        // within the batch, as its transaction may be rolled back
+        flushPendingSales();
+        batchNotifications.set(changedUris);
+        // Number of the changed URIs collected before the last yield, whose changes are committed
+        int committedUriCount = 0;
+        boolean yielded = false;
+        boolean successful = false;
+        database.beginTransaction();
+        try {
+            int operationsSinceYield = 0;
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                // Let other threads use the database between the operations
+                if (i > 0 && (operation.isYieldAllowed()
+                        || operationsSinceYield >= MAX_OPERATIONS_PER_YIELD_POINT)) {
+                    operationsSinceYield = 0;
+                    if (database.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY)) {
+                        yielded = true;
+                        committedUriCount = changedUris.size();
+                    }
+                }
+                results[i] = operation.apply(this, results, i);
+                operationsSinceYield++;
+            }
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+            batchNotifications.remove();
+            if (successful) {
+                Log.d(LOG_TAG, "TEST: The number of applied operations is " + operations.size());
+                notifyBatchChanges(changedUris, changedUris.size());
+            } else if (yielded) {
+                // The operations before the last yield stay committed, the failed one may have
+                // touched any product
+                Log.e(LOG_TAG, "Batch failed after committing part of its operations");
+                changedUris.add(CONTENT_URI);
+                notifyBatchChanges(changedUris, committedUriCount);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Invalidate the cached rows and quantities after a batch, and notify the URIs it changed.
+     * Called once the batch transaction has ended.
+     *
+     * @param changedUris The URIs collected during the batch, in the order they were changed.
+     * @param count       The number of the first of them to notify. Any of the later ones is
+     *                    notified too if it's {@link ProductEntry#CONTENT_URI}.
+     */
+    private void notifyBatchChanges(Set<Uri> changedUris, int count) {
+        if (changedUris.isEmpty()) {
+            return;
+        }
+        // Rows read by other threads while the batch was open may have been cached with their old values,
+        // and quantities loaded for sales too
+        productRowCache.invalidateAll();
+        pendingSales.evictAll();
+
+        // Notify each changed URI only once
+        int index = 0;
+        for (Uri changedUri : changedUris) {
+            if (index++ < count || changedUri.equals(CONTENT_URI)) {
+                getContext().getContentResolver().notifyChange(changedUri, null);
+            }
+        }
+    }
+
+    /**
+     * Build the URI to notify about a change of a single product. Observers of the product URI or of
+     * the products URI receive it, and can read the kind of change from {@link ProductContract#QUERY_PARAMETER_CHANGE}.
+     */
+    private static Uri buildRowChangeUri(long productId, String change) {
+        return ContentUris.withAppendedId(CONTENT_URI, productId).buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                .build();
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Inside of
+     * {@link #applyBatch(ArrayList)} the notification is deferred until the batch is committed.
+     */
+    private void notifyChange(Uri uri) {
+        invalidateCachedRows(uri);
+        Set<Uri> changedUris = batchNotifications.get();
+        if (changedUris != null) {
+            changedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Drop the cached product rows that the change at the given URI may have modified.
+     */
+    private void invalidateCachedRows(Uri uri) {
+        switch (uriMatcher.match(uri)) {
+            case PRODUCT_ID:
+                productRowCache.invalidate(ContentUris.parseId(uri));
+                pendingSales.evict(ContentUris.parseId(uri));
+                break;
+            case SUPPLIERS:
+            case SUPPLIER_ID:
+                // Supplier rows aren't cached, renaming a supplier also notifies the products URI
+                break;
+            default:
+                // Any of the products may have changed
+                productRowCache.invalidateAll();
+                pendingSales.evictAll();
+        }
+    }
+
+    /**
+     * Handle provider specific methods: {@link ProductContract#METHOD_SELL} and
+     * {@link ProductContract#METHOD_ROW_CACHE_STATS}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        // The methods work on the products, so they are recorded under the products URI
+        long startNanos = ProviderMetrics.start();
+        boolean failed = true;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(ProviderMetrics.OPERATION_CALL, PRODUCTS, startNanos, 1, failed);
+        }
+    }
+
+    /**
+     * Helper method for {@link #call(String, String, Bundle)}.
+     */
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case METHOD_SELL:
+                if (arg == null) {
+                    throw new IllegalArgumentException("Sale requires a product ID");
+                }
+                int count = extras == null ? 1 : extras.getInt(EXTRA_SELL_COUNT, 1);
+                return sellProduct(Long.parseLong(arg), count);
+            case METHOD_ROW_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putLong(EXTRA_CACHE_HITS, productRowCache.getHitCount());
+                stats.putLong(EXTRA_CACHE_MISSES, productRowCache.getMissCount());
+                stats.putInt(EXTRA_CACHE_SIZE, productRowCache.size());
+                return stats;
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    /**
+     * Sell the given count of a product. The sale is buffered in {@link #pendingSales}, which
+     * checks the stock and takes the items atomically, so concurrent sales can't overwrite each
+     * other or sell more than there is. The sales are written to the database shortly after, see
+     * {@link #flushPendingSales()}. Return a Bundle with the outcome and the resulting quantity.
+     */
+    private Bundle sellProduct(long productId, int count) {
+        // Check that the count is valid
+        if (count <= 0) {
+            throw new IllegalArgumentException("Sale requires a positive count");
+        }
+
+        Bundle result = new Bundle();
+        int pendingSaleCount;
+        while ((pendingSaleCount = pendingSales.sell(productId, count, result)) < 0) {
+            // The quantity isn't known since the product last changed, read it from the database
+            if (!loadQuantity(productId)) {
+                Log.e(LOG_TAG, "Failed to sell missing product " + productId);
+                result.putBoolean(EXTRA_SOLD, false);
+                return result;
+            }
+        }
+        Log.d(LOG_TAG, "TEST: The product sold is " + result.getBoolean(EXTRA_SOLD));
+
+        // Listeners are notified when the sales are written
+        try {
+            if (pendingSaleCount >= MAX_PENDING_SALES) {
+                flushExecutor.execute(flushTask);
+            } else if (pendingSaleCount > 0 && flushScheduled.compareAndSet(false, true)) {
+                flushExecutor.schedule(flushTask, SALES_FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // The provider has been shut down, nothing writes the sales later
+            flushScheduled.set(false);
+            flushPendingSales();
+        }
+        return result;
+    }
+
+    /**
+     * Read the quantity of a product into {@link #pendingSales}. Done under {@link #flushLock},
+     * so the quantity read already includes the sales being written.
+     *
+     * @return false if there is no such product.
+     */
+    private boolean loadQuantity(long productId) {
+        synchronized (flushLock) {
+            try {
+                long quantity = DatabaseUtils.longForQuery(productDbHelper.getReadableDatabase(),
+                        SQL_QUERY_QUANTITY, new String[] {String.valueOf(productId)});
+                pendingSales.load(productId, (int) quantity);
+                return true;
+            } catch (SQLiteDoneException e) {
+                // There is no such product
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Write the buffered sales to the database in a single transaction, one decrease of the
+     * quantity per sold product, and then notify the sold products. Called on a short timer after
+     * a sale, right away when many sales are buffered, and when the process may be killed. Also
+     * called before the writes that may change the quantities of existing products, so they come
+     * after the sales, and before the reads that the quantities in the database decide, such as
+     * the inventory totals. Does nothing inside of {@link #applyBatch(ArrayList)}, which writes
+     * the sales before it starts.
+     */
+    private void flushPendingSales() {
+        if (!pendingSales.hasPendingSales() || batchNotifications.get() != null) {
+            return;
+        }
+        // Single product reads skip the row cache until the sold rows are invalidated
+        productRowCache.startWrite();
+        try {
+            writePendingSales();
+        } finally {
+            productRowCache.endWrite();
+        }
+    }
+
+    /**
+     * Helper method for {@link #flushPendingSales()}.
+     */
+    private void writePendingSales() {
+        LongSparseArray<Integer> changes;
+        synchronized (flushLock) {
+            changes = pendingSales.drain();
+            if (changes.size() == 0) {
+                return;
+            }
+            ProductStatements statements = getStatements();
+            SQLiteDatabase database = statements.getDatabase();
+            boolean written = false;
+            List<Long> failedProductIds = new ArrayList<>();
+            SQLiteStatement sellStatement = statements.acquire(ProductStatements.SELL_PRODUCT);
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < changes.size(); i++) {
+                    // The changes are sales, so they are negative
+                    int count = -changes.valueAt(i);
+                    sellStatement.bindLong(1, count);
+                    sellStatement.bindLong(2, changes.keyAt(i));
+                    sellStatement.bindLong(3, count);
+                    if (sellStatement.executeUpdateDelete() == 0) {
+                        failedProductIds.add(changes.keyAt(i));
+                    }
+                }
+                database.setTransactionSuccessful();
+                written = true;
+                // Counted before the commit, so a read that may see the written sales reads again
+                flushCount++;
+            } finally {
+                database.endTransaction();
+                statements.release(ProductStatements.SELL_PRODUCT, sellStatement);
+                if (!written) {
+                    pendingSales.restore(changes);
+                }
+            }
+            for (long productId : failedProductIds) {
+                reloadQuantity(database, productId, -changes.get(productId));
+            }
+        }
+        Log.d(LOG_TAG, "TEST: The number of products with written sales is " + changes.size());
+
+        // The notification also shows the quantity in the database of a product whose sales were dropped
+        for (int i = 0; i < changes.size(); i++) {
+            notifyChange(buildRowChangeUri(changes.keyAt(i), CHANGE_UPDATE));
+        }
+    }
+
+    /**
+     * Drop the sales of a product that couldn't be written, and take the sales buffered since from
+     * the quantity in the database. Every write that may change the quantity of an existing product
+     * writes the buffered sales first, so only a sale made while such a write runs can find less
+     * than it took. Called under {@link #flushLock}.
+     *
+     * @param count The number of sold items that couldn't be written.
+     */
+    private void reloadQuantity(SQLiteDatabase database, long productId, int count) {
+        try {
+            long quantity = DatabaseUtils.longForQuery(database, SQL_QUERY_QUANTITY,
+                    new String[] {String.valueOf(productId)});
+            Log.e(LOG_TAG, "Dropped " + count + " sold items of product " + productId
+                    + ", only " + quantity + " are left");
+            pendingSales.reload(productId, (int) quantity);
+        } catch (SQLiteDoneException e) {
+            Log.e(LOG_TAG, "Dropped " + count + " sold items of deleted product " + productId);
+            pendingSales.remove(productId);
+        }
+    }
+
     /**
      * Delete the data at the given selection and selection arguments.
      */
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
-        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+        final int match = uriMatcher.match(uri);
+        long startNanos = ProviderMetrics.start();
+        int rowsDeleted = 0;
+        boolean failed = true;
+        // Single product reads skip the row cache until the changed rows are invalidated
+        productRowCache.startWrite();
+        try {
+            rowsDeleted = delete(match, uri, selection, selectionArgs);
+            failed = false;
+            return rowsDeleted;
+        } finally {
+            productRowCache.endWrite();
+            metrics.record(ProviderMetrics.OPERATION_DELETE, match, startNanos, rowsDeleted, failed);
+        }
+    }
+
+    /**
+     * Helper method for {@link #delete(Uri, String, String[])}.
+     */
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        if (match == PRODUCTS || match == PRODUCT_ID) {
+            // The buffered sales come before this change
+            flushPendingSales();
+        }
+        SQLiteDatabase database = getStatements().getDatabase();
         // Track the number of rows that were deleted
         int rowsDeleted;
+        // The URI to notify about the change
+        Uri changeUri;
 
-        final int match = uriMatcher.match(uri);
         switch (match){
             case PRODUCTS:
                 rowsDeleted = database.delete(TABLE_NAME, selection, selectionArgs);
+                changeUri = uri;
                 break;
             case PRODUCT_ID:
-                // Specify rows to delete and delete
-                selection = COLUMN_PROD_ID + "=?";
+                // Delete the product through the compiled statement
+                long productId = ContentUris.parseId(uri);
+                rowsDeleted = executeByProductId(ProductStatements.DELETE_PRODUCT, productId);
+                changeUri = buildRowChangeUri(productId, CHANGE_DELETE);
+                break;
+            case SUPPLIERS:
+                // Suppliers of existing products can't be deleted, the foreign key check fails
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                changeUri = uri;
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry.COLUMN_SUPPLIER_ID + "=?";
                 selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                changeUri = uri;
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -206,7 +1524,7 @@ public class ProductProvider extends ContentProvider {
         Log.d(LOG_TAG, "TEST: The number of rows deleted is " + rowsDeleted);
         // If 1 or more rows were deleted, then notify all listeners that the data at the given URI has changed
         if (rowsDeleted > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changeUri);
         }
         // Return the number of deleted rows
         return rowsDeleted;
@@ -218,14 +1536,70 @@ public class ProductProvider extends ContentProvider {
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
         final int match = uriMatcher.match(uri);
+        long startNanos = ProviderMetrics.start();
+        int rowsUpdated = 0;
+        boolean failed = true;
+        // Single product reads skip the row cache until the changed rows are invalidated
+        productRowCache.startWrite();
+        try {
+            rowsUpdated = update(match, uri, values, selection, selectionArgs);
+            failed = false;
+            return rowsUpdated;
+        } finally {
+            productRowCache.endWrite();
+            metrics.record(ProviderMetrics.OPERATION_UPDATE, match, startNanos, rowsUpdated, failed);
+        }
+    }
+
+    /**
+     * Helper method for {@link #update(Uri, ContentValues, String, String[])}.
+     */
+    private int update(int match, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (match == PRODUCTS || match == PRODUCT_ID) {
+            // The buffered sales come before this change, which may be based on the quantities read with them
+            flushPendingSales();
+        }
         switch (match){
             case PRODUCTS:
                 return updateProduct(uri, values, selection, selectionArgs);
             case PRODUCT_ID:
                 // Specify what product needs update
-                selection = COLUMN_PROD_ID + "=?";
+                long productId = ContentUris.parseId(uri);
+                // Given the version the product was read at, the update is conditional
+                Long expectedVersion = null;
+                if (values != null && values.containsKey(COLUMN_VERSION)) {
+                    expectedVersion = values.getAsLong(COLUMN_VERSION);
+                    if (expectedVersion == null) {
+                        throw new IllegalArgumentException("Conditional update requires a valid version");
+                    }
+                    values = new ContentValues(values);
+                    values.remove(COLUMN_VERSION);
+                }
+                int rowsUpdated;
+                if (values != null && values.size() == 1 && values.containsKey(COLUMN_PROD_QUANTITY)) {
+                    // The quantity alone is updated through the compiled statement
+                    rowsUpdated = updateQuantity(productId, values.getAsInteger(COLUMN_PROD_QUANTITY), expectedVersion);
+                } else if (expectedVersion == null) {
+                    selection = SQL_PRODUCT_ID_SELECTION;
+                    selectionArgs = new String[] {String.valueOf(productId)};
+                    rowsUpdated = updateProduct(buildRowChangeUri(productId, CHANGE_UPDATE), values, selection, selectionArgs);
+                } else {
+                    selection = SQL_PRODUCT_VERSION_SELECTION;
+                    selectionArgs = new String[] {String.valueOf(productId), String.valueOf(expectedVersion)};
+                    rowsUpdated = updateProduct(buildRowChangeUri(productId, CHANGE_UPDATE), values, selection, selectionArgs);
+                }
+                if (rowsUpdated == 0 && expectedVersion != null) {
+                    // The caller reads the product again to tell a conflict from a deletion
+                    Log.d(LOG_TAG, "TEST: The product " + productId + " has changed since version " + expectedVersion);
+                }
+                return rowsUpdated;
+            case SUPPLIERS:
+                return updateSupplier(uri, values, selection, selectionArgs);
+            case SUPPLIER_ID:
+                // Specify what supplier needs update
+                selection = SupplierEntry.COLUMN_SUPPLIER_ID + "=?";
                 selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                return updateProduct(uri, values, selection, selectionArgs);
+                return updateSupplier(uri, values, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -233,59 +1607,143 @@ public class ProductProvider extends ContentProvider {
     /**
      * Helper method to update products in the database with the given content values. Apply the changes
      * to the rows specified in the selection and selection arguments (which could be 0 or 1 or more products).
-     * Return the number of rows that were successfully updated.
+     * Listeners are notified on the given URI. Return the number of rows that were successfully updated.
      */
     private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // Sanity checking the attributes in ContentValues
-        // Check that the product name is not null if it's going to be updated
+        // The version is incremented by the database, it's only given for the conditional update of a product
+        if (values.containsKey(COLUMN_VERSION)) {
+            throw new IllegalArgumentException("The version of a product can't be set");
+        }
+        // Sanity checking the attributes in ContentValues that are going to be updated
         if (values.containsKey(COLUMN_PROD_NAME)){
-            String productName = values.getAsString(COLUMN_PROD_NAME);
-            if (productName == null) {
-                throw new IllegalArgumentException("Product requires a name");
-            }
+            ProductRules.validateName(values.getAsString(COLUMN_PROD_NAME));
         }
-        // Check that the price is not null and valid if it's going to be updated
         if (values.containsKey(COLUMN_PROD_PRICE)) {
-            Integer productPrice = values.getAsInteger(COLUMN_PROD_PRICE);
-            if (productPrice == null || productPrice < 0) {
-                throw new IllegalArgumentException("Product requires a valid price");
-            }
+            ProductRules.validatePrice(values.getAsInteger(COLUMN_PROD_PRICE));
         }
-        // Check that the quantity is not null and valid if it's going to be updated
         if (values.containsKey(COLUMN_PROD_QUANTITY)){
-            Integer productQuantity = values.getAsInteger(COLUMN_PROD_QUANTITY);
-            if (productQuantity == null || productQuantity < 0) {
-                throw new IllegalArgumentException("Product requires a valid quantity");
-            }
+            ProductRules.validateQuantity(values.getAsInteger(COLUMN_PROD_QUANTITY));
         }
-        // Check that the supplier name is not null if it's going to be updated
-        if (values.containsKey(COLUMN_SUPPLIER_NAME)){
-            String supplierName = values.getAsString(COLUMN_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException("Supplier requires a name");
-            }
+        // Check that the supplier ID is not null if it's going to be updated
+        if (values.containsKey(COLUMN_SUPPLIER_ID) && values.getAsLong(COLUMN_SUPPLIER_ID) == null) {
+            throw new IllegalArgumentException("Product requires a valid supplier");
         }
-        // Check that the supplier phone number is not null if it's going to be updated
-        if (values.containsKey(COLUMN_SUPPLIER_PHONE)){
-            String supplierPhone = values.getAsString(COLUMN_SUPPLIER_PHONE);
-            if (supplierPhone == null) {
-                throw new IllegalArgumentException("Supplier requires a phone number");
-            }
+        // The supplier can also be changed by its name and phone number, which are needed together
+        if (values.containsKey(COLUMN_SUPPLIER_NAME) || values.containsKey(COLUMN_SUPPLIER_PHONE)) {
+            validateSupplier(values);
         }
 
         // Get writable database
         SQLiteDatabase database = productDbHelper.getWritableDatabase();
 
         // Perform the update on the database and get the number of rows updated
-        int rowsUpdated = database.update(TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            rowsUpdated = database.update(TABLE_NAME, resolveSupplier(database, values, null), selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
         Log.d(LOG_TAG, "TEST: The number of updated rows is " + rowsUpdated);
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (values.containsKey(COLUMN_SUPPLIER_NAME)) {
+                // The supplier may have been added
+                notifyChange(SupplierEntry.CONTENT_URI);
+            }
+            notifyChange(uri);
+        }
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Helper method to set the quantity of a single product. Return the number of rows that were
+     * successfully updated.
+     *
+     * @param expectedVersion The version the product must still have, or null to update it anyway.
+     */
+    private int updateQuantity(long productId, Integer quantity, @Nullable Long expectedVersion) {
+        ProductRules.validateQuantity(quantity);
+
+        int rowsUpdated;
+        ProductStatements statements = getStatements();
+        int kind = expectedVersion == null
+                ? ProductStatements.UPDATE_QUANTITY : ProductStatements.UPDATE_QUANTITY_IF_VERSION;
+        SQLiteStatement updateStatement = statements.acquire(kind);
+        try {
+            updateStatement.bindLong(1, quantity);
+            updateStatement.bindLong(2, productId);
+            if (expectedVersion != null) {
+                updateStatement.bindLong(3, expectedVersion);
+            }
+            rowsUpdated = updateStatement.executeUpdateDelete();
+        } finally {
+            statements.release(kind, updateStatement);
+        }
+        Log.d(LOG_TAG, "TEST: The number of updated rows is " + rowsUpdated);
+
+        if (rowsUpdated != 0) {
+            notifyChange(buildRowChangeUri(productId, CHANGE_UPDATE));
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Execute a compiled update or delete statement whose only argument is the product ID.
+     * Return the number of rows that were changed.
+     */
+    private int executeByProductId(int kind, long productId) {
+        ProductStatements statements = getStatements();
+        SQLiteStatement statement = statements.acquire(kind);
+        try {
+            statement.bindLong(1, productId);
+            return statement.executeUpdateDelete();
+        } finally {
+            statements.release(kind, statement);
+        }
+    }
+
+    /**
+     * Helper method to update suppliers in the database with the given content values. Renaming a
+     * supplier changes a single row, however many products it supplies. Return the number of rows
+     * that were successfully updated.
+     */
+    private int updateSupplier(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Check the supplier name and phone number if they are going to be updated
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)) {
+            ProductRules.validateSupplierName(values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME));
+        }
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE)) {
+            ProductRules.validateSupplierPhone(values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE));
+        }
+
+        // Get writable database
+        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+
+        // Perform the update on the database and get the number of rows updated
+        int rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+        Log.d(LOG_TAG, "TEST: The number of updated suppliers is " + rowsUpdated);
+
+        // The products show the supplier name and phone number too, so they have changed as well
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+            notifyChange(CONTENT_URI);
         }
         // Return the number of rows updated
         return rowsUpdated;
     }
+
+    /**
+     * Print the provider metrics and the row cache counters, e.g. with "adb shell dumpsys activity provider ProductProvider".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        metrics.dump(writer);
+        productRowCache.dump(writer);
+        pendingSales.dump(writer);
+    }
 }
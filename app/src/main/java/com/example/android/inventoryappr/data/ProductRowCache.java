@@ -0,0 +1,221 @@
+package com.example.android.inventoryappr.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_VERSION;
+
+/**
+ * {@link ProductRowCache} keeps the last used single product rows of {@link ProductProvider},
+ * with all the product and supplier columns, so opening the same product again doesn't query
+ * the database.
+ * <p>
+ * A row read from the database is cached only if nothing has been invalidated since the read
+ * started, so a row read concurrently with a write can't bring the old values back. A write
+ * commits before it invalidates the rows it changed, so while a write runs, see
+ * {@link #startWrite()}, no row is served or cached at all.
+ */
+class ProductRowCache {
+
+    /* All the columns of a cached row, in the order of the row values */
+    static final String[] COLUMNS = {
+            COLUMN_PROD_ID,
+            COLUMN_PROD_NAME,
+            COLUMN_PROD_PRICE,
+            COLUMN_PROD_QUANTITY,
+            COLUMN_STOCK_BUCKET,
+            COLUMN_SUPPLIER_ID,
+            COLUMN_SUPPLIER_NAME,
+            COLUMN_SUPPLIER_PHONE,
+            COLUMN_VERSION
+    };
+
+    private static final List<String> COLUMN_LIST = Arrays.asList(COLUMNS);
+
+    /* The row values by product ID */
+    private final LruCache<Long, Object[]> rows;
+
+    /* Incremented on every invalidation, rows read before it are not cached */
+    private long invalidations;
+
+    /* Number of writes in progress, which may have committed rows that aren't invalidated yet */
+    private int writes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a new {@link ProductRowCache}.
+     *
+     * @param maxRows The maximum number of rows kept.
+     */
+    ProductRowCache(int maxRows) {
+        rows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Check whether all the columns of the projection are in the cached rows.
+     *
+     * @param projection The projection of the query, null for all the columns.
+     */
+    static boolean supports(@Nullable String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (!COLUMN_LIST.contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the values of the cached row, or null if the row isn't cached or a write is in progress.
+     */
+    @Nullable
+    synchronized Object[] get(long productId) {
+        Object[] row = writes == 0 ? rows.get(productId) : null;
+        (row == null ? misses : hits).incrementAndGet();
+        return row;
+    }
+
+    /**
+     * Call before a write that may change the products, and call {@link #endWrite()} once the
+     * write has been committed and the rows it changed have been invalidated.
+     */
+    synchronized void startWrite() {
+        writes++;
+    }
+
+    /**
+     * Call after the write started with {@link #startWrite()}, whether it succeeded or not.
+     */
+    synchronized void endWrite() {
+        writes--;
+    }
+
+    /**
+     * Call before reading a row from the database.
+     *
+     * @return the stamp to pass to {@link #put(long, Object[], long)} with the row.
+     */
+    synchronized long startLoad() {
+        return invalidations;
+    }
+
+    /**
+     * Cache the row read from the database, unless it may be outdated already.
+     *
+     * @param loadStamp The value returned by {@link #startLoad()} before the row was read.
+     */
+    synchronized void put(long productId, Object[] row, long loadStamp) {
+        if (loadStamp == invalidations && writes == 0) {
+            rows.put(productId, row);
+        }
+    }
+
+    /**
+     * Drop the row of a changed product.
+     */
+    synchronized void invalidate(long productId) {
+        invalidations++;
+        rows.remove(productId);
+    }
+
+    /**
+     * Drop all the rows, when it isn't known which products have changed.
+     */
+    synchronized void invalidateAll() {
+        invalidations++;
+        rows.evictAll();
+    }
+
+    /**
+     * Read the values of the current row of a cursor with the {@link #COLUMNS}.
+     */
+    static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[COLUMNS.length];
+        for (int column = 0; column < COLUMNS.length; column++) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    row[column] = null;
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[column] = cursor.getLong(column);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[column] = cursor.getDouble(column);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[column] = cursor.getBlob(column);
+                    break;
+                default:
+                    row[column] = cursor.getString(column);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Return a cursor with the projected columns of the row.
+     *
+     * @param row        The row values, or null for a cursor without rows.
+     * @param projection The projection, null for all the columns. See {@link #supports(String[])}.
+     */
+    static Cursor toCursor(@Nullable Object[] row, @Nullable String[] projection) {
+        String[] columns = projection == null ? COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columns.length];
+            for (int column = 0; column < columns.length; column++) {
+                values[column] = row[COLUMN_LIST.indexOf(columns[column])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to read the database.
+     */
+    long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of cached rows.
+     */
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * Print the counters of the cache.
+     */
+    void dump(PrintWriter writer) {
+        writer.printf("Product row cache: %d rows, %d hits, %d misses%n", size(), getHitCount(), getMissCount());
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.inventoryappr.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_VERSION;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.TABLE_NAME;
+
+/**
+ * {@link ProductStatements} is a pool of the compiled statements of the frequent product writes
+ * of {@link ProductProvider}, so they are not built again from ContentValues on every call.
+ * <p>
+ * A statement holds its bound arguments, so it is used by one thread at a time: it is taken
+ * with {@link #acquire(int)} and given back with {@link #release(int, SQLiteStatement)}. When
+ * the pooled statement of a kind is in use, another one is compiled for the caller and closed
+ * on release.
+ */
+class ProductStatements {
+
+    /* Insert a complete product, see INSERT_PRODUCT_COLUMNS for the arguments, then its stock bucket */
+    static final int INSERT_PRODUCT = 0;
+
+    /* Set the quantity of a product: the quantity, then the product ID */
+    static final int UPDATE_QUANTITY = 1;
+
+    /* Delete a product: the product ID */
+    static final int DELETE_PRODUCT = 2;
+
+    /* Sell a product if there are enough in stock: the count, the product ID, the count again */
+    static final int SELL_PRODUCT = 3;
+
+    /* Set the quantity of a product if it has the given version: the quantity, the product ID, the version */
+    static final int UPDATE_QUANTITY_IF_VERSION = 4;
+
+    /* Columns bound by the INSERT_PRODUCT statement, in the order of its arguments */
+    static final String[] INSERT_PRODUCT_COLUMNS = {
+            COLUMN_PROD_NAME,
+            COLUMN_PROD_PRICE,
+            COLUMN_PROD_QUANTITY,
+            COLUMN_SUPPLIER_ID
+    };
+
+    /* Increments the version in the statements, so the version trigger of the database doesn't write the row again */
+    private static final String SQL_NEXT_VERSION = COLUMN_VERSION + " = " + COLUMN_VERSION + " + 1";
+
+    /* The SQL of the statements, by kind */
+    private static final String[] SQL = {
+            "INSERT INTO " + TABLE_NAME + " (" + TextUtils.join(", ", INSERT_PRODUCT_COLUMNS)
+                    + ", " + COLUMN_STOCK_BUCKET + ") VALUES (?, ?, ?, ?, ?)",
+            "UPDATE " + TABLE_NAME + " SET " + COLUMN_PROD_QUANTITY + " = ?, " + SQL_NEXT_VERSION
+                    + " WHERE " + COLUMN_PROD_ID + " = ?",
+            "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_PROD_ID + " = ?",
+            "UPDATE " + TABLE_NAME + " SET " + COLUMN_PROD_QUANTITY + " = " + COLUMN_PROD_QUANTITY + " - ?, " + SQL_NEXT_VERSION
+                    + " WHERE " + COLUMN_PROD_ID + " = ? AND " + COLUMN_PROD_QUANTITY + " >= ?",
+            "UPDATE " + TABLE_NAME + " SET " + COLUMN_PROD_QUANTITY + " = ?, " + SQL_NEXT_VERSION
+                    + " WHERE " + COLUMN_PROD_ID + " = ? AND " + COLUMN_VERSION + " = ?"
+    };
+
+    private final SQLiteDatabase database;
+
+    /* The idle statements by kind, null when not compiled yet or in use */
+    private final SQLiteStatement[] idleStatements = new SQLiteStatement[SQL.length];
+
+    private boolean closed;
+
+    /**
+     * Constructs a new {@link ProductStatements}.
+     *
+     * @param database The writable database the statements are compiled for.
+     */
+    ProductStatements(SQLiteDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * @return the database the statements are compiled for.
+     */
+    SQLiteDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * Take a statement of the given kind for the calling thread.
+     *
+     * @param kind One of the statement kind constants.
+     */
+    SQLiteStatement acquire(int kind) {
+        synchronized (this) {
+            SQLiteStatement statement = idleStatements[kind];
+            if (statement != null) {
+                idleStatements[kind] = null;
+                return statement;
+            }
+        }
+        // Compiled outside of the lock, it may have to wait for the database
+        return database.compileStatement(SQL[kind]);
+    }
+
+    /**
+     * Give back a statement returned by {@link #acquire(int)}.
+     */
+    void release(int kind, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (this) {
+            if (!closed && idleStatements[kind] == null) {
+                idleStatements[kind] = statement;
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    /**
+     * Close the idle statements. The statements in use are closed when they are released.
+     */
+    synchronized void close() {
+        closed = true;
+        for (int kind = 0; kind < idleStatements.length; kind++) {
+            if (idleStatements[kind] != null) {
+                idleStatements[kind].close();
+                idleStatements[kind] = null;
+            }
+        }
+    }
+}
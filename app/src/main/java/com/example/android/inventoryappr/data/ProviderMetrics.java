@@ -0,0 +1,213 @@
+package com.example.android.inventoryappr.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_COUNT;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_ERRORS;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_MAX_MICROS;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_OPERATION;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_P50_MICROS;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_P90_MICROS;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_P99_MICROS;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_ROWS;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_TOTAL_MICROS;
+import static com.example.android.inventoryappr.data.ProductContract.MetricsEntry.COLUMN_URI;
+
+/**
+ * {@link ProviderMetrics} collects the latency, row count and error count of the operations of
+ * {@link ProductProvider}, broken down by operation and URI match code.
+ * <p>
+ * Each latency is counted in a histogram of power of two buckets of microseconds, so recording
+ * an operation is a few atomic increments without locks or allocations. The percentiles are
+ * estimated from the buckets, each one reported as the upper bound of its bucket.
+ */
+class ProviderMetrics {
+
+    /* The instrumented operations */
+    static final int OPERATION_QUERY = 0;
+    static final int OPERATION_INSERT = 1;
+    static final int OPERATION_BULK_INSERT = 2;
+    static final int OPERATION_UPDATE = 3;
+    static final int OPERATION_DELETE = 4;
+    static final int OPERATION_APPLY_BATCH = 5;
+    static final int OPERATION_CALL = 6;
+
+    /* Names of the operations, by operation */
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulkInsert", "update", "delete", "applyBatch", "call"
+    };
+
+    /* Bucket i counts the latencies below 2^i microseconds, the last one all the longer ones */
+    private static final int BUCKET_COUNT = 25;
+
+    /* Name of the statistics of the URIs without a match code */
+    private static final String UNKNOWN_URI_NAME = "unknown";
+
+    /* The match codes and their names, the last slot is for unknown codes */
+    private final int[] matchCodes;
+    private final String[] uriNames;
+
+    /* The statistics by operation and by match code slot. Created up front, so never modified */
+    private final OperationStats[][] stats;
+
+    /**
+     * Constructs a new {@link ProviderMetrics}.
+     *
+     * @param uriNames The names of the URIs to report by their URI match code.
+     */
+    ProviderMetrics(SparseArray<String> uriNames) {
+        int uriCount = uriNames.size();
+        this.matchCodes = new int[uriCount];
+        this.uriNames = new String[uriCount + 1];
+        for (int i = 0; i < uriCount; i++) {
+            matchCodes[i] = uriNames.keyAt(i);
+            this.uriNames[i] = uriNames.valueAt(i);
+        }
+        this.uriNames[uriCount] = UNKNOWN_URI_NAME;
+        stats = new OperationStats[OPERATION_NAMES.length][uriCount + 1];
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot <= uriCount; slot++) {
+                stats[operation][slot] = new OperationStats();
+            }
+        }
+    }
+
+    /**
+     * The statistics of one operation on one URI.
+     */
+    private static class OperationStats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        /**
+         * Estimate the latency below which the given fraction of the operations took.
+         *
+         * @return the upper bound of the bucket of the percentile, in microseconds.
+         */
+        long percentileMicros(double fraction) {
+            long total = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                total += buckets.get(bucket);
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank && seen > 0) {
+                    return bucket == BUCKET_COUNT - 1 ? maxNanos.get() / 1000 : 1L << bucket;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * @return the start time of an operation, to be passed to {@link #record(int, int, long, int, boolean)}.
+     */
+    static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Record a finished operation.
+     *
+     * @param operation  One of the OPERATION constants.
+     * @param matchCode  The URI match code of the operation.
+     * @param startNanos The time returned by {@link #start()} when the operation started.
+     * @param rows       The number of rows the operation returned or changed.
+     * @param failed     Whether the operation threw an exception.
+     */
+    void record(int operation, int matchCode, long startNanos, int rows, boolean failed) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        OperationStats operationStats = stats[operation][getSlot(matchCode)];
+        operationStats.count.incrementAndGet();
+        if (failed) {
+            operationStats.errors.incrementAndGet();
+        }
+        operationStats.rows.addAndGet(rows);
+        operationStats.totalNanos.addAndGet(nanos);
+        long maxNanos = operationStats.maxNanos.get();
+        while (nanos > maxNanos && !operationStats.maxNanos.compareAndSet(maxNanos, nanos)) {
+            maxNanos = operationStats.maxNanos.get();
+        }
+        // The bucket is the number of bits of the latency in microseconds
+        long micros = nanos / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+        operationStats.buckets.incrementAndGet(bucket);
+    }
+
+    /**
+     * Return the slot of the statistics of the match code.
+     */
+    private int getSlot(int matchCode) {
+        for (int slot = 0; slot < matchCodes.length; slot++) {
+            if (matchCodes[slot] == matchCode) {
+                return slot;
+            }
+        }
+        return matchCodes.length;
+    }
+
+    /**
+     * Return a cursor with a row for each operation and URI that has been used,
+     * with the columns of {@link ProductContract.MetricsEntry}.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                COLUMN_OPERATION, COLUMN_URI, COLUMN_COUNT, COLUMN_ERRORS, COLUMN_ROWS,
+                COLUMN_TOTAL_MICROS, COLUMN_P50_MICROS, COLUMN_P90_MICROS, COLUMN_P99_MICROS,
+                COLUMN_MAX_MICROS});
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < uriNames.length; slot++) {
+                OperationStats operationStats = stats[operation][slot];
+                if (operationStats.count.get() == 0) {
+                    continue;
+                }
+                cursor.newRow()
+                        .add(OPERATION_NAMES[operation])
+                        .add(uriNames[slot])
+                        .add(operationStats.count.get())
+                        .add(operationStats.errors.get())
+                        .add(operationStats.rows.get())
+                        .add(operationStats.totalNanos.get() / 1000)
+                        .add(operationStats.percentileMicros(0.5))
+                        .add(operationStats.percentileMicros(0.9))
+                        .add(operationStats.percentileMicros(0.99))
+                        .add(operationStats.maxNanos.get() / 1000);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Print the statistics as a table, one line for each operation and URI that has been used.
+     */
+    void dump(PrintWriter writer) {
+        Cursor cursor = toCursor();
+        try {
+            writer.println("Provider metrics (latencies in microseconds):");
+            writer.printf("  %-12s %-20s %8s %6s %10s %10s %10s %10s %10s%n",
+                    COLUMN_OPERATION, COLUMN_URI, COLUMN_COUNT, COLUMN_ERRORS, COLUMN_ROWS,
+                    "p50", "p90", "p99", "max");
+            while (cursor.moveToNext()) {
+                writer.printf("  %-12s %-20s %8d %6d %10d %10d %10d %10d %10d%n",
+                        cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+                        cursor.getLong(3), cursor.getLong(4), cursor.getLong(6),
+                        cursor.getLong(7), cursor.getLong(8), cursor.getLong(9));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -10,7 +10,6 @@ import android.support.annotation.Nullable;
 import android.support.design.widget.TextInputLayout;
 import android.support.v7.app.AlertDialog;
 import android.text.Editable;
-import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -24,6 +23,8 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.example.android.inventoryappr.R;
+import com.example.android.inventoryappr.core.ProductInput;
+import com.example.android.inventoryappr.data.ProductCommandExecutor;
 
 import java.util.List;
 
@@ -37,7 +38,6 @@ import static com.example.android.inventoryappr.data.ProductContract.ProductEntr
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
-import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
 
 /**
  * The {@link ProductListFragment} displays fields to input detailed information of a single product
@@ -98,11 +98,8 @@ public class AddProductFragment extends CustomFragment {
                 // Hide the keyboard
                 InputMethodManager imm = (InputMethodManager) getActivity().getSystemService(Context.INPUT_METHOD_SERVICE);
                 imm.hideSoftInputFromWindow(getView().getWindowToken(), 0);
-                // Save a new product
-                if (insertProduct()) {
-                    // Finish this fragment when insertion is done
-                    getFragmentManager().popBackStack();
-                }
+                // Save a new product. This fragment is finished when insertion is done
+                insertProduct();
                 return true;
         }
         return super.onOptionsItemSelected(item);
@@ -135,51 +132,23 @@ public class AddProductFragment extends CustomFragment {
     }
 
     /**
-     * Insert a new product into the database.
+     * Insert a new product into the database in the background and finish this fragment
+     * when the insertion was successful.
      *
-     * @return true when product insertion was successful, otherwise false.
+     * @return false when the input is invalid and nothing is inserted, otherwise true.
      */
     private boolean insertProduct() {
-        // Get the input values from the fields
-        String productNameString = productNameView.getText().toString().trim();
-        String priceString = priceView.getText().toString().trim();
-        String quantityString = quantityView.getText().toString().trim();
-        String supplierNameString = supplierNameView.getText().toString().trim();
-        String supplierPhoneString = supplierPhoneView.getText().toString().trim();
-
-        // If fields are empty, prompt the user and return
-        if (TextUtils.isEmpty(productNameString)
-                || TextUtils.isEmpty(priceString)
-                || TextUtils.isEmpty(quantityString)
-                || TextUtils.isEmpty(supplierNameString)
-                || TextUtils.isEmpty(supplierPhoneString)
-                ) {
-            Toast.makeText(getActivity(), R.string.toast_no_blank_fields, Toast.LENGTH_LONG).show();
-            return false;
-        }
-
-        // Price and Quantity cannot be less than 0
-        if (priceString.length() > 9) {
-            // No more than 9-digit number allowed
-            Toast.makeText(getActivity(), R.string.toast_invalid_price, Toast.LENGTH_LONG).show();
-            return false;
-        }
-        int priceInt = Integer.parseInt(priceString);
-        if (priceInt < 0) {
-            Toast.makeText(getActivity(), R.string.toast_invalid_price, Toast.LENGTH_LONG).show();
-            return false;
-        }
-
-        if (quantityString.length() > 9) {
-            // No more than 9-digit number allowed
-            Toast.makeText(getActivity(), R.string.toast_invalid_quantity, Toast.LENGTH_LONG).show();
-            return false;
-        }
-        int quantityInt = Integer.parseInt(quantityString);
-        if (quantityInt < 0) {
-            Toast.makeText(getActivity(), R.string.toast_invalid_quantity, Toast.LENGTH_LONG).show();
+        // Get the input values from the fields, all of them are required
+        ProductInput input = parseProductInput(productNameView, priceView, quantityView,
+                supplierNameView, supplierPhoneView);
+        if (input == null) {
             return false;
         }
+        String productNameString = input.getProductName();
+        int priceInt = input.getPrice();
+        int quantityInt = input.getQuantity();
+        String supplierNameString = input.getSupplierName();
+        String supplierPhoneString = input.getSupplierPhone();
 
         // Use a ContentValues object as a vessel for the data to be inserted
         ContentValues values = new ContentValues();
@@ -189,20 +158,26 @@ public class AddProductFragment extends CustomFragment {
         values.put(COLUMN_SUPPLIER_NAME, supplierNameString);
         values.put(COLUMN_SUPPLIER_PHONE, supplierPhoneString);
 
-        // Insert a new product into the provider, returning the content URI for the new product
-        Uri newProdUri = getActivity().getContentResolver().insert(CONTENT_URI, values);
-        Log.d(LOG_TAG, "TEST: The new product's Uri is " + newProdUri);
-
-        // Show a toast message depending on whether or not the insertion was successful
-        if (newProdUri == null) {
-            // If the new content URI is null, then there was an error with insertion
-            Toast.makeText(getActivity(), getString(R.string.toast_add_product_failed), Toast.LENGTH_LONG).show();
-            return false;
-        } else {
-            // Otherwise, the insertion was successful and we can display a toast
-            Toast.makeText(getActivity(), getString(R.string.toast_add_product_success), Toast.LENGTH_LONG).show();
-            return true;
-        }
+        // Insert a new product into the provider in the background
+        final Context appContext = getActivity().getApplicationContext();
+        new ProductCommandExecutor(appContext).insert(values,
+                new ProductCommandExecutor.OnCommandCompleteListener<Uri>() {
+                    @Override
+                    public void onCommandComplete(Uri newProdUri) {
+                        Log.d(LOG_TAG, "TEST: The new product's Uri is " + newProdUri);
+                        // Show a toast message depending on whether or not the insertion was successful
+                        if (newProdUri == null) {
+                            // If the new content URI is null, then there was an error with insertion
+                            Toast.makeText(appContext, R.string.toast_add_product_failed, Toast.LENGTH_LONG).show();
+                        } else {
+                            // Otherwise, the insertion was successful and we can display a toast
+                            Toast.makeText(appContext, R.string.toast_add_product_success, Toast.LENGTH_LONG).show();
+                            // Finish this fragment if it's still on the screen
+                            finishWhenResumed();
+                        }
+                    }
+                });
+        return true;
     }
 
     /**
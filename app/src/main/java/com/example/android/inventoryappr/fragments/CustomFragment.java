@@ -1,9 +1,43 @@
 package com.example.android.inventoryappr.fragments;
 
+import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.inventoryappr.R;
+import com.example.android.inventoryappr.core.ProductInput;
 
 public class CustomFragment extends Fragment {
 
+    /* Whether the fragment has to be finished when it's resumed */
+    private boolean finishOnResume = false;
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (finishOnResume) {
+            finishOnResume = false;
+            getFragmentManager().popBackStack();
+        }
+    }
+
+    /**
+     * Finish this fragment, from a callback that may run while the fragment isn't on the screen.
+     * After the state of the fragment has been saved the back stack can't change, so the fragment
+     * is finished once it's resumed.
+     */
+    protected void finishWhenResumed() {
+        if (!isAdded()) {
+            return;
+        }
+        if (getFragmentManager().isStateSaved()) {
+            finishOnResume = true;
+        } else {
+            getFragmentManager().popBackStack();
+        }
+    }
+
     /**
      * This method can be called from the activity's onBackPress() method.
      *
@@ -12,4 +46,30 @@ public class CustomFragment extends Fragment {
     public boolean onBackPressed() {
         return false;
     }
+
+    /**
+     * Parse the product typed into the fields of the product form.
+     * If the input is invalid, a toast tells the user why.
+     *
+     * @return the parsed product, or null if the input is invalid.
+     */
+    @Nullable
+    protected ProductInput parseProductInput(TextView productNameView, TextView priceView, TextView quantityView,
+                                             TextView supplierNameView, TextView supplierPhoneView) {
+        ProductInput input = ProductInput.parse(productNameView.getText(), priceView.getText(),
+                quantityView.getText(), supplierNameView.getText(), supplierPhoneView.getText());
+        switch (input.getError()) {
+            case ProductInput.NO_ERROR:
+                return input;
+            case ProductInput.ERROR_BLANK_FIELDS:
+                Toast.makeText(getActivity(), R.string.toast_no_blank_fields, Toast.LENGTH_LONG).show();
+                return null;
+            case ProductInput.ERROR_INVALID_PRICE:
+                Toast.makeText(getActivity(), R.string.toast_invalid_price, Toast.LENGTH_LONG).show();
+                return null;
+            default:
+                Toast.makeText(getActivity(), R.string.toast_invalid_quantity, Toast.LENGTH_LONG).show();
+                return null;
+        }
+    }
 }
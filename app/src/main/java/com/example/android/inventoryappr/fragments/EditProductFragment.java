@@ -28,6 +28,8 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.example.android.inventoryappr.R;
+import com.example.android.inventoryappr.core.ProductInput;
+import com.example.android.inventoryappr.data.ProductCommandExecutor;
 
 import java.util.List;
 
@@ -42,6 +44,7 @@ import static com.example.android.inventoryappr.data.ProductContract.ProductEntr
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_VERSION;
 
 /**
  * The {@link ProductListFragment} displays detailed information of a single product
@@ -54,6 +57,8 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
     private static final String LOG_TAG = EditProductFragment.class.getSimpleName();
     /* CursorLoader ID */
     private static final int LOADER_ID = 1;
+    /* Number of times a save is tried when the product keeps changing meanwhile */
+    private static final int MAX_SAVE_ATTEMPTS = 3;
 
     @BindView(R.id.product_name)
     EditText productNameView;
@@ -79,9 +84,18 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
     int currentProductQuantity;
     String currentSupplierName;
     String currentSupplierPhone;
+    long currentProductVersion;
 
     /* Indicator of changes in the product info */
     private boolean productHasChanged = false;
+    /* Whether the product has been loaded, so the input fields hold the user's changes */
+    private boolean productLoaded = false;
+    /* Whether the input fields are being set from the product, which isn't a change of the user */
+    private boolean showingProduct = false;
+    /* Whether the save has to be tried again once the product has been loaded again */
+    private boolean saveAfterReload = false;
+    /* Number of times the current save has been tried */
+    private int saveAttempts;
 
     /**
      * Empty constructor for the fragment.
@@ -119,11 +133,9 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
                 // Hide the keyboard
                 InputMethodManager imm = (InputMethodManager) getActivity().getSystemService(Context.INPUT_METHOD_SERVICE);
                 imm.hideSoftInputFromWindow(getView().getWindowToken(), 0);
-                // Update the product
-                if (updateProduct()) {
-                    // Finish this fragment when updating is done
-                    getFragmentManager().popBackStack();
-                }
+                // Update the product. This fragment is finished when updating is done
+                saveAttempts = 0;
+                updateProduct();
                 return true;
         }
         return super.onOptionsItemSelected(item);
@@ -168,7 +180,8 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
                 COLUMN_PROD_PRICE,
                 COLUMN_PROD_QUANTITY,
                 COLUMN_SUPPLIER_NAME,
-                COLUMN_SUPPLIER_PHONE
+                COLUMN_SUPPLIER_PHONE,
+                COLUMN_VERSION
         };
 
         // This loader will execute the ContentProvider's query method on a background thread
@@ -192,27 +205,90 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
         // (This should be the only row in the cursor)
         if (data.moveToFirst()) {
             // Extract out the values from the Cursor for the given column index
-            currentProductName = data.getString(data.getColumnIndex(COLUMN_PROD_NAME));
-            currentProductPrice = data.getInt(data.getColumnIndex(COLUMN_PROD_PRICE));
-            currentProductQuantity = data.getInt(data.getColumnIndex(COLUMN_PROD_QUANTITY));
-            currentSupplierName = data.getString(data.getColumnIndex(COLUMN_SUPPLIER_NAME));
-            currentSupplierPhone = data.getString(data.getColumnIndex(COLUMN_SUPPLIER_PHONE));
-
-            // Update the views on the screen with the values from the database
-            productNameView.setText(currentProductName);
-            priceView.setText(String.valueOf(currentProductPrice));
-            quantityView.setText(String.valueOf(currentProductQuantity));
-            supplierNameView.setText(currentSupplierName);
-            supplierPhoneView.setText(currentSupplierPhone);
-
-            // Set up productHasChanged listeners
-            setupOnEditTextChangedListener(textInputLayoutList);
+            String productName = data.getString(data.getColumnIndex(COLUMN_PROD_NAME));
+            int productPrice = data.getInt(data.getColumnIndex(COLUMN_PROD_PRICE));
+            int productQuantity = data.getInt(data.getColumnIndex(COLUMN_PROD_QUANTITY));
+            String supplierName = data.getString(data.getColumnIndex(COLUMN_SUPPLIER_NAME));
+            String supplierPhone = data.getString(data.getColumnIndex(COLUMN_SUPPLIER_PHONE));
+
+            // Update the views on the screen with the values from the database. The product is
+            // loaded again when it changes, e.g. when it's sold from the list, then only the fields
+            // the user hasn't changed are updated, and the user's changes are kept. A changed
+            // quantity keeps the user's change on top of the new quantity
+            showingProduct = true;
+            mergeText(productNameView, currentProductName, productName);
+            mergeText(priceView, String.valueOf(currentProductPrice), String.valueOf(productPrice));
+            mergeQuantity(currentProductQuantity, productQuantity);
+            mergeText(supplierNameView, currentSupplierName, supplierName);
+            mergeText(supplierPhoneView, currentSupplierPhone, supplierPhone);
+            showingProduct = false;
+
+            // The user's changes now apply to these values
+            currentProductName = productName;
+            currentProductPrice = productPrice;
+            currentProductQuantity = productQuantity;
+            currentSupplierName = supplierName;
+            currentSupplierPhone = supplierPhone;
+            currentProductVersion = data.getLong(data.getColumnIndex(COLUMN_VERSION));
+
+            if (!productLoaded) {
+                productLoaded = true;
+                // Set up productHasChanged listeners
+                setupOnEditTextChangedListener(textInputLayoutList);
+            }
+            if (saveAfterReload) {
+                // The last save found the product changed, save the merged values
+                saveAfterReload = false;
+                updateProduct();
+            }
         } else {
+            saveAfterReload = false;
             Toast.makeText(getActivity(), R.string.toast_error_no_such_product, Toast.LENGTH_LONG).show();
             Log.e(LOG_TAG, "No such product in the database");
         }
     }
 
+    /**
+     * Show the new value of a product field in its input field, unless the user has changed the
+     * input field from the previous value.
+     *
+     * @param previousValue The value loaded before, the input field's text if the user hasn't changed it.
+     * @param value         The value just loaded.
+     */
+    private void mergeText(EditText editText, String previousValue, String value) {
+        if (!productLoaded || editText.getText().toString().equals(previousValue)) {
+            editText.setText(value);
+        }
+    }
+
+    /**
+     * Show the new quantity of the product in its input field. If the user has changed the input
+     * field, the user's change is applied to the new quantity instead, so a concurrent sale isn't
+     * overwritten, and the user is told the field has been changed.
+     *
+     * @param previousQuantity The quantity loaded before, which the user's change applies to.
+     * @param quantity         The quantity just loaded.
+     */
+    private void mergeQuantity(int previousQuantity, int quantity) {
+        if (!productLoaded || quantity == previousQuantity) {
+            mergeText(quantityView, String.valueOf(previousQuantity), String.valueOf(quantity));
+            return;
+        }
+        String quantityText = quantityView.getText().toString().trim();
+        int userQuantity = ProductInput.parseNumber(quantityText);
+        if (userQuantity == -1 || userQuantity == previousQuantity) {
+            // Not changed by the user, or not a number the change can be worked out from
+            mergeText(quantityView, String.valueOf(previousQuantity), String.valueOf(quantity));
+            return;
+        }
+        long mergedQuantity = (long) quantity + userQuantity - previousQuantity;
+        mergedQuantity = Math.max(Math.min(mergedQuantity, Integer.MAX_VALUE), 0);
+        Log.d(LOG_TAG, "TEST: The quantity changed from " + previousQuantity + " to " + quantity
+                + ", the input " + userQuantity + " is changed to " + mergedQuantity);
+        quantityView.setText(String.valueOf(mergedQuantity));
+        Toast.makeText(getActivity(), R.string.toast_editor_quantity_merged, Toast.LENGTH_LONG).show();
+    }
+
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields
@@ -224,51 +300,23 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
     }
 
     /**
-     * Update current product in the database.
+     * Update current product in the database in the background and finish this fragment
+     * when the update was successful or there was nothing to update.
      *
-     * @return true when an update was successful or nothing to update, otherwise false.
+     * @return false when the input is invalid and nothing is updated, otherwise true.
      */
     private boolean updateProduct() {
-        // Get the input values from the fields
-        String productNameString = productNameView.getText().toString().trim();
-        String priceString = priceView.getText().toString().trim();
-        String quantityString = quantityView.getText().toString().trim();
-        String supplierNameString = supplierNameView.getText().toString().trim();
-        String supplierPhoneString = supplierPhoneView.getText().toString().trim();
-
-        // If fields are empty, prompt the user and return
-        if (TextUtils.isEmpty(productNameString)
-                || TextUtils.isEmpty(priceString)
-                || TextUtils.isEmpty(quantityString)
-                || TextUtils.isEmpty(supplierNameString)
-                || TextUtils.isEmpty(supplierPhoneString)
-                ) {
-            Toast.makeText(getActivity(), R.string.toast_no_blank_fields, Toast.LENGTH_LONG).show();
-            return false;
-        }
-
-        // Price and Quantity cannot be less than 0
-        if (priceString.length() > 9) {
-            // No more than 9-digit number allowed
-            Toast.makeText(getActivity(), R.string.toast_invalid_price, Toast.LENGTH_LONG).show();
-            return false;
-        }
-        int priceInt = Integer.parseInt(priceString);
-        if (priceInt < 0) {
-            Toast.makeText(getActivity(), R.string.toast_invalid_price, Toast.LENGTH_LONG).show();
-            return false;
-        }
-
-        if (quantityString.length() > 9) {
-            // No more than 9-digit number allowed
-            Toast.makeText(getActivity(), R.string.toast_invalid_quantity, Toast.LENGTH_LONG).show();
-            return false;
-        }
-        int quantityInt = Integer.parseInt(quantityString);
-        if (quantityInt < 0) {
-            Toast.makeText(getActivity(), R.string.toast_invalid_quantity, Toast.LENGTH_LONG).show();
+        // Get the input values from the fields, all of them are required
+        ProductInput input = parseProductInput(productNameView, priceView, quantityView,
+                supplierNameView, supplierPhoneView);
+        if (input == null) {
             return false;
         }
+        String productNameString = input.getProductName();
+        int priceInt = input.getPrice();
+        int quantityInt = input.getQuantity();
+        String supplierNameString = input.getSupplierName();
+        String supplierPhoneString = input.getSupplierPhone();
 
         // Use a ContentValues object as a vessel for the data to be inserted
         ContentValues values = new ContentValues();
@@ -282,37 +330,62 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
         if (quantityInt != currentProductQuantity) {
             values.put(COLUMN_PROD_QUANTITY, quantityInt);
         }
-        if (!supplierNameString.equals(currentSupplierName)) {
+        // The supplier is identified by its name and phone number together, so both are put
+        if (!supplierNameString.equals(currentSupplierName) || !supplierPhoneString.equals(currentSupplierPhone)) {
             values.put(COLUMN_SUPPLIER_NAME, supplierNameString);
-        }
-        if (!supplierPhoneString.equals(currentSupplierPhone)) {
             values.put(COLUMN_SUPPLIER_PHONE, supplierPhoneString);
         }
         // If nothing to update, do nothing and return
         if (values.size() == 0) {
             Log.d(LOG_TAG, "TEST: Number of values to update is zero");
+            getFragmentManager().popBackStack();
             return true;
         }
-
-        // Update database for the product URI
-        int rowsUpdated = getActivity().getContentResolver().update(currentProductUri, values, null, null);
-        Log.d(LOG_TAG, "TEST: The number of updated rows is " + rowsUpdated);
-        switch (rowsUpdated) {
-            // Show a toast message depending on whether or not the updating was successful
-            case 1:
-                // Success
-                Toast.makeText(getActivity(), R.string.toast_editor_update_success, Toast.LENGTH_LONG).show();
-                return true;
-            case 0:
-                // Fail
-                Toast.makeText(getActivity(), R.string.toast_editor_update_failed, Toast.LENGTH_LONG).show();
-                return false;
-            default:
-                // Unexpected behavior
-                // return value shouldn't be more than 1 because we update only one product at a time
-                Toast.makeText(getActivity(), R.string.toast_editor_error_updating, Toast.LENGTH_LONG).show();
-                return false;
-        }
+        // Update the product only if it hasn't changed since it was loaded
+        values.put(COLUMN_VERSION, currentProductVersion);
+        saveAttempts++;
+
+        // Update database for the product URI in the background
+        final Context appContext = getActivity().getApplicationContext();
+        new ProductCommandExecutor(appContext).update(currentProductUri, values,
+                new ProductCommandExecutor.OnCommandCompleteListener<Integer>() {
+                    @Override
+                    public void onCommandComplete(Integer rowsUpdated) {
+                        Log.d(LOG_TAG, "TEST: The number of updated rows is " + rowsUpdated);
+                        if (rowsUpdated == null) {
+                            // The update failed with an error
+                            Toast.makeText(appContext, R.string.toast_editor_error_updating, Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        switch (rowsUpdated) {
+                            // Show a toast message depending on whether or not the updating was successful
+                            case 1:
+                                // Success
+                                Toast.makeText(appContext, R.string.toast_editor_update_success, Toast.LENGTH_LONG).show();
+                                // Finish this fragment if it's still on the screen
+                                finishWhenResumed();
+                                break;
+                            case 0:
+                                // The product has changed since it was loaded, or it has been deleted.
+                                // Load it again, which merges its changes into the input fields, and save again
+                                if (isAdded() && saveAttempts < MAX_SAVE_ATTEMPTS) {
+                                    saveAfterReload = true;
+                                    getLoaderManager().getLoader(LOADER_ID).onContentChanged();
+                                } else if (saveAttempts >= MAX_SAVE_ATTEMPTS) {
+                                    Toast.makeText(appContext, R.string.toast_editor_update_conflict, Toast.LENGTH_LONG).show();
+                                } else {
+                                    // Fail
+                                    Toast.makeText(appContext, R.string.toast_editor_update_failed, Toast.LENGTH_LONG).show();
+                                }
+                                break;
+                            default:
+                                // Unexpected behavior
+                                // return value shouldn't be more than 1 because we update only one product at a time
+                                Toast.makeText(appContext, R.string.toast_editor_error_updating, Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+        return true;
     }
 
     /**
@@ -388,8 +461,10 @@ public class EditProductFragment extends CustomFragment implements LoaderManager
                 // Check the text after the user has changed it
                 @Override
                 public void afterTextChanged(Editable inputText) {
-                    // Change productHasChanged boolean to true
-                    productHasChanged = true;
+                    // Change productHasChanged boolean to true, unless the text comes from the product
+                    if (!showingProduct) {
+                        productHasChanged = true;
+                    }
                     // setupFloatingLabelErrorOnEditText
                     if (TextUtils.isEmpty(inputText)) {
                         textInputLayout.setError(getString(R.string.edittext_floating_error_label));
@@ -1,6 +1,5 @@
 package com.example.android.inventoryappr.fragments;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -26,6 +25,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventoryappr.R;
+import com.example.android.inventoryappr.core.QuantityBuckets;
+import com.example.android.inventoryappr.data.ProductCommandExecutor;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -36,8 +37,10 @@ import static com.example.android.inventoryappr.data.ProductContract.ProductEntr
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_VERSION;
 
 /**
  * The {@link ProductListFragment} displays detailed information of the single product
@@ -71,8 +74,11 @@ public class ProductDetailsFragment extends Fragment implements LoaderManager.Lo
     int currentProductQuantity;
     String currentSupplierName;
     String currentSupplierPhone;
+    long currentProductVersion;
     /* New product quantity set by the user */
     int quantityTracker;
+    /* Whether the product has been loaded, so quantityTracker holds the user's changes */
+    private boolean productLoaded;
 
     /* Reference to the Listener implemented in the holding activity */
     private OnEditOptionSelectedListener onEditOptionSelectedListener;
@@ -159,8 +165,10 @@ public class ProductDetailsFragment extends Fragment implements LoaderManager.Lo
                 COLUMN_PROD_NAME,
                 COLUMN_PROD_PRICE,
                 COLUMN_PROD_QUANTITY,
+                COLUMN_STOCK_BUCKET,
                 COLUMN_SUPPLIER_NAME,
-                COLUMN_SUPPLIER_PHONE
+                COLUMN_SUPPLIER_PHONE,
+                COLUMN_VERSION
         };
 
         // This loader will execute the ContentProvider's query method on a background thread
@@ -183,25 +191,31 @@ public class ProductDetailsFragment extends Fragment implements LoaderManager.Lo
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (data.moveToFirst()) {
+            // The product is loaded again when it changes, e.g. when it's sold from the list. The
+            // changes the user has made to the quantity meanwhile are kept on top of the new quantity
+            int quantityChange = productLoaded ? quantityTracker - currentProductQuantity : 0;
+
             // Extract out the values from the Cursor for the given column index
             currentProductName = data.getString(data.getColumnIndex(COLUMN_PROD_NAME));
             currentProductPrice = data.getInt(data.getColumnIndex(COLUMN_PROD_PRICE));
             currentProductQuantity = data.getInt(data.getColumnIndex(COLUMN_PROD_QUANTITY));
             currentSupplierName = data.getString(data.getColumnIndex(COLUMN_SUPPLIER_NAME));
             currentSupplierPhone = data.getString(data.getColumnIndex(COLUMN_SUPPLIER_PHONE));
+            currentProductVersion = data.getLong(data.getColumnIndex(COLUMN_VERSION));
 
             // Instantiate quantityTracker
-            quantityTracker = currentProductQuantity;
+            quantityTracker = Math.max(currentProductQuantity + quantityChange, 0);
+            productLoaded = true;
 
             // Set the proper background color on the quantity pane
-            String productQuantityString = String.valueOf(currentProductQuantity);
+            int stockBucket = data.getInt(data.getColumnIndex(COLUMN_STOCK_BUCKET));
             GradientDrawable quantityPane = (GradientDrawable) quantityView.getBackground();
-            quantityPane.setColor(getQuantityColor(getContext(), productQuantityString));
+            quantityPane.setColor(getQuantityColor(getContext(), stockBucket));
 
             // Update the views on the screen with the values from the database
             productNameView.setText(currentProductName);
             priceView.setText(String.valueOf(currentProductPrice));
-            quantityView.setText(String.valueOf(currentProductQuantity));
+            quantityView.setText(String.valueOf(quantityTracker));
             supplierNameView.setText(currentSupplierName);
             supplierPhoneView.setText(currentSupplierPhone);
         } else {
@@ -282,24 +296,37 @@ public class ProductDetailsFragment extends Fragment implements LoaderManager.Lo
     private void deleteProduct() {
         // Only perform the deletion if this is an existing product
         if (currentProductUri != null) {
-            int rowsDeleted = getActivity().getContentResolver().delete(currentProductUri, null, null);
-            Log.d(LOG_TAG, "TEST: deleteProduct(). The number of rows deleted is " + rowsDeleted);
-            switch (rowsDeleted){
-                // Show a toast message depending on whether or not product deletion was successful
-                case 1:
-                    // Success
-                    Toast.makeText(getActivity(), R.string.toast_details_deletion_success, Toast.LENGTH_LONG).show();
-                    break;
-                case 0:
-                    // Fail
-                    Toast.makeText(getActivity(), R.string.toast_details_deletion_failed, Toast.LENGTH_LONG).show();
-                    break;
-                default:
-                    // Unexpected behavior
-                    // return value shouldn't be more than 1 because we delete only one product at a time
-                    Toast.makeText(getActivity(), R.string.toast_details_deletion_error, Toast.LENGTH_LONG).show();
-                    Log.e(LOG_TAG, "Error deleting product");
-            }
+            final Context appContext = getActivity().getApplicationContext();
+            new ProductCommandExecutor(appContext).delete(currentProductUri,
+                    new ProductCommandExecutor.OnCommandCompleteListener<Integer>() {
+                        @Override
+                        public void onCommandComplete(Integer rowsDeleted) {
+                            Log.d(LOG_TAG, "TEST: deleteProduct(). The number of rows deleted is " + rowsDeleted);
+                            if (rowsDeleted == null) {
+                                // The deletion failed with an error
+                                Toast.makeText(appContext, R.string.toast_details_deletion_error, Toast.LENGTH_LONG).show();
+                                return;
+                            }
+                            switch (rowsDeleted) {
+                                // Show a toast message depending on whether or not product deletion was successful
+                                case 1:
+                                    // Success
+                                    Toast.makeText(appContext, R.string.toast_details_deletion_success, Toast.LENGTH_LONG).show();
+                                    break;
+                                case 0:
+                                    // Fail
+                                    Toast.makeText(appContext, R.string.toast_details_deletion_failed, Toast.LENGTH_LONG).show();
+                                    break;
+                                default:
+                                    // Unexpected behavior
+                                    // return value shouldn't be more than 1 because we delete only one product at a time
+                                    Toast.makeText(appContext, R.string.toast_details_deletion_error, Toast.LENGTH_LONG).show();
+                                    Log.e(LOG_TAG, "Error deleting product");
+                            }
+                        }
+                    });
+            // The product is about to be deleted, so there is no quantity to save on leaving
+            currentProductUri = null;
             // Finish this fragment
             getFragmentManager().popBackStack();
         }
@@ -342,45 +369,52 @@ public class ProductDetailsFragment extends Fragment implements LoaderManager.Lo
         }
     }
     /**
-     * Update product quantity value in the database.
+     * Update product quantity value in the database. The user's change is written as a change of
+     * the quantity the user saw, so the sales made meanwhile are not overwritten.
      */
     private void updateQuantity(){
-        // Use a ContentValues object as a vessel for the data to be inserted
-        ContentValues values;
         // Proceed if
-        if (quantityTracker != currentProductQuantity // if quantity needs an update
-                && quantityTracker >= 0     // if quantity isn't a negative value
-                && currentProductUri != null) { // if the product hasn't been deleted
-            values = new ContentValues();
-            values.put(COLUMN_PROD_QUANTITY, quantityTracker);
-        } else {
+        if (quantityTracker == currentProductQuantity // if quantity doesn't need an update
+                || quantityTracker < 0     // if quantity is a negative value
+                || currentProductUri == null) { // if the product has been deleted
             // If nothing to update or new quantity < 0, do nothing and return
             Log.d(LOG_TAG, "TEST: currentProductQuantity " + currentProductQuantity + " | " + quantityTracker + " quantityTracker");
             return;
         }
 
-        // Update database for the product URI
-        int rowsUpdated = getActivity().getContentResolver().update(currentProductUri,
-                values,
-                null,
-                null);
-        Log.d(LOG_TAG, "TEST: The number of updated rows is " + rowsUpdated);
-        switch (rowsUpdated) {
-            // Show a toast message depending on whether or not the updating was successful
-            case 1:
-                // Success
-                Toast.makeText(getActivity(), "Product updated", Toast.LENGTH_LONG).show();
-                break;
-            case 0:
-                // Fail
-                Toast.makeText(getActivity(), "Update failed", Toast.LENGTH_LONG).show();
-                break;
-            default:
-                // Unexpected behavior
-                // return value shouldn't be more than 1 because we update only one product at a time
-                Toast.makeText(getActivity(), "Error updating product", Toast.LENGTH_LONG).show();
-                Log.e(LOG_TAG, "Error updating product");
-        }
+        // Update database for the product URI in the background, so leaving the fragment isn't blocked
+        final Context appContext = getActivity().getApplicationContext();
+        new ProductCommandExecutor(appContext).changeQuantity(currentProductUri, currentProductQuantity,
+                currentProductVersion, quantityTracker - currentProductQuantity,
+                new ProductCommandExecutor.OnCommandCompleteListener<Integer>() {
+                    @Override
+                    public void onCommandComplete(Integer rowsUpdated) {
+                        Log.d(LOG_TAG, "TEST: The number of updated rows is " + rowsUpdated);
+                        if (rowsUpdated == null) {
+                            // The update failed with an error
+                            Toast.makeText(appContext, "Error updating product", Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        switch (rowsUpdated) {
+                            // Show a toast message depending on whether or not the updating was successful
+                            case 1:
+                                // Success
+                                Toast.makeText(appContext, "Product updated", Toast.LENGTH_LONG).show();
+                                break;
+                            case 0:
+                                // Fail
+                                Toast.makeText(appContext, "Update failed", Toast.LENGTH_LONG).show();
+                                break;
+                            default:
+                                // Unexpected behavior
+                                // return value shouldn't be more than 1 because we update only one product at a time
+                                Toast.makeText(appContext, "Error updating product", Toast.LENGTH_LONG).show();
+                                Log.e(LOG_TAG, "Error updating product");
+                        }
+                    }
+                });
+        // The new quantity is on its way to the database
+        currentProductQuantity = quantityTracker;
     }
 
     @Override
@@ -394,30 +428,28 @@ public class ProductDetailsFragment extends Fragment implements LoaderManager.Lo
      * Return color according to quantity.
      *
      * @param context Context to reach the resources.
-     * @param quantityString The product quantity as a string.
+     * @param stockBucket The stock bucket of the product quantity, see {@link QuantityBuckets}.
      * @return Color object.
      */
-    private int getQuantityColor(Context context, String quantityString) {
+    private int getQuantityColor(Context context, int stockBucket) {
         int quantityColorResourceId;
-        int quantityRange = quantityString.length();
-        switch (quantityRange) {
-            case 0:
-            case 1:
+        switch (stockBucket) {
+            case QuantityBuckets.BUCKET_TO_10:
                 quantityColorResourceId = R.color.quantityTo10;
                 break;
-            case 2:
+            case QuantityBuckets.BUCKET_TO_100:
                 quantityColorResourceId = R.color.quantityTo100;
                 break;
-            case 3:
+            case QuantityBuckets.BUCKET_TO_1K:
                 quantityColorResourceId = R.color.quantityTo1k;
                 break;
-            case 4:
+            case QuantityBuckets.BUCKET_TO_10K:
                 quantityColorResourceId = R.color.quantityTo10k;
                 break;
-            case 5:
+            case QuantityBuckets.BUCKET_TO_100K:
                 quantityColorResourceId = R.color.quantityTo100k;
                 break;
-            case 6:
+            case QuantityBuckets.BUCKET_TO_1M:
                 quantityColorResourceId = R.color.quantityTo1m;
                 break;
             default:
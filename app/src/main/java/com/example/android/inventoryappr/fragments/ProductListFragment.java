@@ -1,11 +1,14 @@
 package com.example.android.inventoryappr.fragments;
 
+import android.app.Activity;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -15,6 +18,10 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AlertDialog;
+import android.support.v7.util.AdapterListUpdateCallback;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -22,13 +29,21 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.CursorAdapter;
-import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventoryappr.ProductCursorAdapter;
+import com.example.android.inventoryappr.ProductPagedList;
 import com.example.android.inventoryappr.R;
+import com.example.android.inventoryappr.data.ProductCommandExecutor;
+import com.example.android.inventoryappr.data.ProductContract.SummaryEntry;
+import com.example.android.inventoryappr.data.ProductCsvImporter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -39,9 +54,19 @@ import static com.example.android.inventoryappr.data.ProductContract.ProductEntr
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
 import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.buildSearchUri;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.getSortKeyColumns;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_LOW_STOCK;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_OUT_OF_STOCK;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_SORT;
+import static com.example.android.inventoryappr.data.ProductContract.SORT_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.SORT_PRICE;
+import static com.example.android.inventoryappr.data.ProductContract.SORT_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.SORT_SUPPLIER;
 
 /**
  * The {@link ProductListFragment} displays the list of all products in the inventory.
@@ -50,21 +75,92 @@ public class ProductListFragment extends Fragment implements LoaderManager.Loade
 
     /* Tag for the log messages */
     private static final String LOG_TAG = ProductListFragment.class.getSimpleName();
-    /* CursorLoader ID */
-    private static final int LOADER_ID = 1;
-
-    @BindView(R.id.list_view_products)
-    ListView productsListView;
+    /* Columns to extract from the "products" table. "_id" column is required.
+     * The list doesn't show the suppliers, so the products are read without joining them,
+     * unless they are sorted by supplier, see buildProjection() */
+    private static final String[] PROJECTION = {
+            COLUMN_PROD_ID,
+            COLUMN_PROD_NAME,
+            COLUMN_PROD_PRICE,
+            COLUMN_PROD_QUANTITY,
+            COLUMN_STOCK_BUCKET
+    };
+
+    /* The sort options of the menu, and the sort query parameters they stand for */
+    private static final int[] SORT_MENU_ITEM_IDS = {
+            R.id.action_sort_added,
+            R.id.action_sort_name,
+            R.id.action_sort_price,
+            R.id.action_sort_quantity,
+            R.id.action_sort_supplier
+    };
+    private static final String[] SORTS = {
+            null,
+            SORT_NAME,
+            SORT_PRICE,
+            SORT_QUANTITY,
+            SORT_SUPPLIER
+    };
+
+    /* The filter options of the menu, and the filter query parameters they stand for */
+    private static final int[] FILTER_MENU_ITEM_IDS = {
+            R.id.action_filter_all,
+            R.id.action_filter_low_stock,
+            R.id.action_filter_out_of_stock
+    };
+    private static final String[] FILTERS = {
+            null,
+            QUERY_PARAMETER_LOW_STOCK,
+            QUERY_PARAMETER_OUT_OF_STOCK
+    };
+
+    /* CursorLoader ID of the inventory totals */
+    private static final int SUMMARY_LOADER_ID = 0;
+
+    /* Columns of the inventory totals shown in the header */
+    private static final String[] SUMMARY_PROJECTION = {
+            SummaryEntry.COLUMN_PRODUCT_COUNT,
+            SummaryEntry.COLUMN_TOTAL_QUANTITY,
+            SummaryEntry.COLUMN_TOTAL_VALUE
+    };
+
+    /* Request code of the CSV file picker */
+    private static final int REQUEST_IMPORT_CATALOG = 1;
+
+    /* Name of the file of the rows rejected by the last import */
+    private static final String REJECTED_ROWS_FILE_NAME = "rejected-rows.csv";
+
+    /* Steps of the import progress bar when the file size is known */
+    private static final int IMPORT_PROGRESS_MAX = 1000;
+
+    @BindView(R.id.recycler_view_products)
+    RecyclerView productsRecyclerView;
+    @BindView(R.id.summary_header)
+    TextView summaryHeaderView;
     @BindView(R.id.empty_view)
     View emptyView;
     @BindView(R.id.add_product_fab)
     FloatingActionButton addProductFab;
+    @BindView(R.id.import_progress)
+    ProgressBar importProgressBar;
     private Unbinder unbinder;
 
     /**
      * Reference to the {@link ProductCursorAdapter}
      */
-    private CursorAdapter productCursorAdapter;
+    private ProductCursorAdapter productCursorAdapter;
+
+    /* The pages of products displayed by the adapter */
+    private ProductPagedList productPagedList;
+
+    /* The text searched by the user, empty to display all products */
+    private String searchText = "";
+
+    /* The sort query parameter of the list, null for the order in which the products were added */
+    private String sort;
+
+    /* The filter query parameter of the list, null to display all products */
+    private String filter;
 
     /* Reference to the Listener implemented in the holding activity */
     private OnProductListListener onProductListListener;
@@ -86,7 +182,11 @@ public class ProductListFragment extends Fragment implements LoaderManager.Loade
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        // Clean up. Unbind views from this fragment before the fragment is destroyed
+        // Clean up. Release the loaded pages and stop watching the products
+        productPagedList.close();
+        productPagedList = null;
+        productCursorAdapter.setPagedList(null);
+        // Unbind views from this fragment before the fragment is destroyed
         unbinder.unbind();
     }
 
@@ -100,56 +200,119 @@ public class ProductListFragment extends Fragment implements LoaderManager.Loade
         getActivity().setTitle(getString(R.string.app_bar_title_product_list));
 
         // Setup an Adapter to create a list item view for each row of the product data
-        // Adapter is empty for now because we use CursorLoader
-        productCursorAdapter = new ProductCursorAdapter(getActivity(), null);
-        productsListView.setAdapter(productCursorAdapter);
-
-        // Set empty view to display to the user when there is no data
-        productsListView.setEmptyView(emptyView);
-        productsListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Adapter is empty until the first page of products is loaded
+        productCursorAdapter = new ProductCursorAdapter(getActivity(), new ProductCursorAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // For a CursorAdapter the "long id" parameter returns the row ID in the table, that is _id
-                Uri currentProductUri = ContentUris.withAppendedId(CONTENT_URI, id);
+            public void onProductClick(long productId) {
+                Uri currentProductUri = ContentUris.withAppendedId(CONTENT_URI, productId);
                 // Send the callback and the product URI to the holding activity using the reference
                 onProductListListener.onProductSelected(currentProductUri);
             }
         });
+        productsRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        productsRecyclerView.setHasFixedSize(true);
+        productsRecyclerView.setAdapter(productCursorAdapter);
+
+        // Display the empty view to the user when there is no data
+        productCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
         // Start loading data
-        getLoaderManager().initLoader(LOADER_ID, null, this);
+        startPagedList();
+        getLoaderManager().initLoader(SUMMARY_LOADER_ID, null, this);
     }
 
     @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
-        // Columns to extract from the "products" table. "_id" column is required
-        String[] projection = {
-                COLUMN_PROD_ID,
-                COLUMN_PROD_NAME,
-                COLUMN_PROD_PRICE,
-                COLUMN_PROD_QUANTITY,
-                COLUMN_SUPPLIER_NAME,
-                COLUMN_SUPPLIER_PHONE
-        };
-        // Return a CursorLoader that loads all product rows from the database
-        return new CursorLoader(getActivity(),
-                CONTENT_URI,    // products table URI
-                projection,
-                null,   // WHERE clause (null means everything)
-                null,
-                null);  // Default sorting order
+    public Loader<Cursor> onCreateLoader(int i, @Nullable Bundle args) {
+        // The totals are a single row kept up to date by the database, so they load at once
+        // however many products there are, and reload whenever the products change
+        return new CursorLoader(getActivity(),  // Parent activity context
+                SummaryEntry.CONTENT_URI,       // Query URI for the inventory totals
+                SUMMARY_PROJECTION,             // Columns to include in the resulting Cursor
+                null,                   // No selection clause
+                null,                // No selection arguments
+                null);                  // Default sort order
     }
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        // Change cursor in the adapter to the one with new loaded data
-        productCursorAdapter.swapCursor(data);
+        if (data == null || !data.moveToFirst()) {
+            Log.e(LOG_TAG, "Error getting the inventory totals");
+            summaryHeaderView.setText("");
+            return;
+        }
+        // The columns are in the order of SUMMARY_PROJECTION
+        summaryHeaderView.setText(getString(R.string.summary_header,
+                data.getLong(0), data.getLong(1), data.getLong(2)));
     }
 
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        // Clean up. Pass null, to have the cursor closed before the loader is destroyed
-        productCursorAdapter.swapCursor(null);
+        // The views are gone when the loader is reset with the fragment
+        if (summaryHeaderView != null) {
+            summaryHeaderView.setText("");
+        }
+    }
+
+    /**
+     * Start loading the products that match the current search text and filter into the list,
+     * in the current sort order, replacing the products loaded before.
+     */
+    private void startPagedList() {
+        if (productPagedList != null) {
+            productPagedList.close();
+        }
+        Uri productsUri = searchText.trim().isEmpty() ? CONTENT_URI : buildSearchUri(searchText);
+        Uri.Builder productsUriBuilder = productsUri.buildUpon();
+        if (filter != null) {
+            productsUriBuilder.appendQueryParameter(filter, String.valueOf(true));
+        }
+        if (sort != null) {
+            productsUriBuilder.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+        }
+        productsUri = productsUriBuilder.build();
+        productPagedList = new ProductPagedList(getActivity(), productsUri, buildProjection(sort),
+                new AdapterListUpdateCallback(productCursorAdapter));
+        productCursorAdapter.setPagedList(productPagedList);
+        productPagedList.start();
+    }
+
+    /**
+     * Return the {@link #PROJECTION} with the sort key columns of the given sort order, which the
+     * paged list reads the keys of its pages from.
+     */
+    private static String[] buildProjection(String sort) {
+        List<String> projection = new ArrayList<>(Arrays.asList(PROJECTION));
+        for (String sortKeyColumn : getSortKeyColumns(sort)) {
+            if (!projection.contains(sortKeyColumn)) {
+                projection.add(sortKeyColumn);
+            }
+        }
+        return projection.toArray(new String[projection.size()]);
+    }
+
+    /**
+     * Display the empty view to the user when there is no data.
+     */
+    private void updateEmptyView() {
+        if (emptyView != null) {
+            emptyView.setVisibility(productCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        }
     }
 
     @Override
@@ -167,12 +330,65 @@ public class ProductListFragment extends Fragment implements LoaderManager.Loade
         // Inflate the menu options from the res/menu/product_list_menu.xml file
         // This adds menu items to the app bar
         inflater.inflate(R.menu.product_list_menu, menu);
+        // Check the current sort and filter options
+        menu.findItem(SORT_MENU_ITEM_IDS[indexOf(SORTS, sort)]).setChecked(true);
+        menu.findItem(FILTER_MENU_ITEM_IDS[indexOf(FILTERS, filter)]).setChecked(true);
+
+        // Search the products as the user types
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (!searchText.isEmpty()) {
+            // Restore the search after the menu has been recreated
+            searchItem.expandActionView();
+            searchView.setQuery(searchText, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                if (!newText.equals(searchText)) {
+                    searchText = newText;
+                    // The views are gone when the menu outlives them
+                    if (productCursorAdapter != null && getView() != null) {
+                        startPagedList();
+                    }
+                }
+                return true;
+            }
+        });
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort by" menu options
+            case R.id.action_sort_added:
+            case R.id.action_sort_name:
+            case R.id.action_sort_price:
+            case R.id.action_sort_quantity:
+            case R.id.action_sort_supplier:
+                sort = SORTS[indexOf(SORT_MENU_ITEM_IDS, item.getItemId())];
+                item.setChecked(true);
+                startPagedList();
+                return true;
+            // Respond to a click on one of the "Show" menu options
+            case R.id.action_filter_all:
+            case R.id.action_filter_low_stock:
+            case R.id.action_filter_out_of_stock:
+                filter = FILTERS[indexOf(FILTER_MENU_ITEM_IDS, item.getItemId())];
+                item.setChecked(true);
+                startPagedList();
+                return true;
+            // Respond to a click on the "Import catalog" menu option
+            case R.id.action_import_catalog:
+                pickCatalogFile();
+                return true;
             // Respond to a click on the "Delete all products" menu option
             case R.id.action_dummy_product:
                 insertDummyProduct();
@@ -185,6 +401,30 @@ public class ProductListFragment extends Fragment implements LoaderManager.Loade
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Return the index of the value in the array, which must contain it.
+     */
+    private static int indexOf(String[] array, String value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == null ? value == null : array[i].equals(value)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown value " + value);
+    }
+
+    /**
+     * Return the index of the value in the array, which must contain it.
+     */
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown value " + value);
+    }
+
     @Override
     public void onAttach(Context context) {
         super.onAttach(context);
@@ -249,25 +489,105 @@ public class ProductListFragment extends Fragment implements LoaderManager.Loade
      * Delete all products from the database.
      */
     private void deleteAllProducts() {
-        int rowsDeleted = getActivity().getContentResolver().delete(CONTENT_URI, null, null);
-        Log.d(LOG_TAG, "TEST: deleteAllProducts(). The number of rows deleted is " + rowsDeleted);
-        switch (rowsDeleted){
-            // Show a toast message depending on whether or not product deletion was successful
-            case 0:
-                // Fail
-                Toast.makeText(getActivity(), "Deletion failed", Toast.LENGTH_LONG).show();
-                break;
-            default:
-                // Success
-                Toast.makeText(getActivity(), "All products deleted", Toast.LENGTH_SHORT).show();
+        final Context appContext = getActivity().getApplicationContext();
+        new ProductCommandExecutor(appContext).delete(CONTENT_URI,
+                new ProductCommandExecutor.OnCommandCompleteListener<Integer>() {
+                    @Override
+                    public void onCommandComplete(Integer rowsDeleted) {
+                        Log.d(LOG_TAG, "TEST: deleteAllProducts(). The number of rows deleted is " + rowsDeleted);
+                        // Show a toast message depending on whether or not product deletion was successful
+                        if (rowsDeleted == null || rowsDeleted == 0) {
+                            // Fail
+                            Toast.makeText(appContext, "Deletion failed", Toast.LENGTH_LONG).show();
+                        } else {
+                            // Success
+                            Toast.makeText(appContext, "All products deleted", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Let the user pick the CSV catalog to import.
+     */
+    private void pickCatalogFile() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Storage Access Framework
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {
+                    "text/csv", "text/comma-separated-values", "text/plain", "application/csv"});
+        } else {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
         }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        startActivityForResult(intent, REQUEST_IMPORT_CATALOG);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_CATALOG && resultCode == Activity.RESULT_OK
+                && data != null && data.getData() != null) {
+            importCatalog(data.getData());
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Import the products of the CSV catalog in the background, showing the progress.
+     */
+    private void importCatalog(Uri catalogUri) {
+        final Context appContext = getActivity().getApplicationContext();
+        File rejectedRowsDir = appContext.getExternalFilesDir(null);
+        if (rejectedRowsDir == null) {
+            // The external storage is not available
+            rejectedRowsDir = appContext.getFilesDir();
+        }
+        File rejectedRowsFile = new File(rejectedRowsDir, REJECTED_ROWS_FILE_NAME);
+
+        importProgressBar.setIndeterminate(true);
+        importProgressBar.setVisibility(View.VISIBLE);
+        new ProductCsvImporter(appContext).start(catalogUri, rejectedRowsFile,
+                new ProductCsvImporter.OnImportListener() {
+                    @Override
+                    public void onImportProgress(long bytesRead, long totalBytes, ProductCsvImporter.ImportResult result) {
+                        // The views are gone if the user left the list
+                        if (importProgressBar != null && totalBytes > 0) {
+                            importProgressBar.setIndeterminate(false);
+                            importProgressBar.setMax(IMPORT_PROGRESS_MAX);
+                            importProgressBar.setProgress((int) (bytesRead * IMPORT_PROGRESS_MAX / totalBytes));
+                        }
+                    }
+
+                    @Override
+                    public void onImportComplete(ProductCsvImporter.ImportResult result) {
+                        if (importProgressBar != null) {
+                            importProgressBar.setVisibility(View.GONE);
+                        }
+                        if (result == null) {
+                            // Fail
+                            Toast.makeText(appContext, R.string.toast_import_failed, Toast.LENGTH_LONG).show();
+                        } else if (result.getRejectedRowsFile() == null) {
+                            // Success
+                            Toast.makeText(appContext, appContext.getString(R.string.toast_import_success,
+                                    result.getRowsImported()), Toast.LENGTH_LONG).show();
+                        } else {
+                            // Partial success, tell the user where the rejected rows are
+                            Toast.makeText(appContext, appContext.getString(R.string.toast_import_rejected,
+                                    result.getRowsImported(), result.getRowsRejected(),
+                                    result.getRejectedRowsFile().getAbsolutePath()), Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
     }
 
     /**
      * Helper method for debugging. Insert a dummy product into the database.
      */
     private void insertDummyProduct() {
-        Uri newProdUri = null;
+        List<ContentValues> valuesList = new ArrayList<>();
         for (int i = 1; i < 100000000; i = i * 9) {
             // Use a ContentValues object as a vessel for the data to be inserted
             ContentValues values = new ContentValues();
@@ -276,20 +596,26 @@ public class ProductListFragment extends Fragment implements LoaderManager.Loade
             values.put(COLUMN_PROD_QUANTITY, i);
             values.put(COLUMN_SUPPLIER_NAME, "Dummy Supplier Name");
             values.put(COLUMN_SUPPLIER_PHONE, "+0314159265359");
-
-            // Insert a new product into the provider, returning the content URI for the new product
-            newProdUri = getActivity().getContentResolver().insert(CONTENT_URI, values);
+            valuesList.add(values);
         }
-        Log.d(LOG_TAG, "TEST: The new dummy product's Uri is " + newProdUri);
 
-        // Show a toast message depending on whether or not the insertion was successful
-        if (newProdUri == null) {
-            // If the new content URI is null, then there was an error with insertion
-            Toast.makeText(getActivity(), getString(R.string.toast_add_product_failed), Toast.LENGTH_LONG).show();
-        } else {
-            // Otherwise, the insertion was successful and we can display a toast
-            Toast.makeText(getActivity(), getString(R.string.toast_add_product_success), Toast.LENGTH_LONG).show();
-        }
+        // Insert all the new products into the provider in one background transaction
+        final Context appContext = getActivity().getApplicationContext();
+        new ProductCommandExecutor(appContext).bulkInsert(valuesList.toArray(new ContentValues[valuesList.size()]),
+                new ProductCommandExecutor.OnCommandCompleteListener<Integer>() {
+                    @Override
+                    public void onCommandComplete(Integer rowsInserted) {
+                        Log.d(LOG_TAG, "TEST: The number of inserted dummy products is " + rowsInserted);
+                        // Show a toast message depending on whether or not the insertion was successful
+                        if (rowsInserted == null || rowsInserted == 0) {
+                            // If nothing was inserted, then there was an error with insertion
+                            Toast.makeText(appContext, R.string.toast_add_product_failed, Toast.LENGTH_LONG).show();
+                        } else {
+                            // Otherwise, the insertion was successful and we can display a toast
+                            Toast.makeText(appContext, R.string.toast_add_product_success, Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
     }
 
     /**
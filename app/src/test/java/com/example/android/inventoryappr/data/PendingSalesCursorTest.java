@@ -0,0 +1,115 @@
+package com.example.android.inventoryappr.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryappr.core.QuantityBuckets;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_STOCK_BUCKET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the buffered sales added by {@link PendingSalesCursor}, read the way the list binds its rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PendingSalesCursorTest {
+
+    private static final String[] COLUMNS = {COLUMN_PROD_ID, COLUMN_PROD_NAME, COLUMN_PROD_QUANTITY, COLUMN_STOCK_BUCKET};
+
+    @Test
+    public void bindsTheQuantityWithTheSales() {
+        LongSparseArray<Integer> changes = new LongSparseArray<>();
+        changes.put(1, -3);
+        Cursor cursor = PendingSalesCursor.wrap(productRows(), changes, -1);
+        assertTrue(cursor.moveToFirst());
+
+        // The quantity text, the colour and the ID, as the list binds them
+        CharArrayBuffer buffer = new CharArrayBuffer(2);
+        cursor.copyStringToBuffer(2, buffer);
+        assertEquals("7", new String(buffer.data, 0, buffer.sizeCopied));
+        assertEquals(QuantityBuckets.BUCKET_TO_10, cursor.getInt(3));
+        assertEquals(1, cursor.getLong(0));
+
+        assertEquals(7, cursor.getInt(2));
+        assertEquals("7", cursor.getString(2));
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(2));
+        assertFalse(cursor.isNull(2));
+
+        // The other columns aren't changed
+        cursor.copyStringToBuffer(1, buffer);
+        assertEquals("Pen", new String(buffer.data, 0, buffer.sizeCopied));
+        cursor.close();
+    }
+
+    @Test
+    public void bindsTheRowsWithoutSalesAsTheyAre() {
+        LongSparseArray<Integer> changes = new LongSparseArray<>();
+        changes.put(1, -3);
+        Cursor cursor = PendingSalesCursor.wrap(productRows(), changes, -1);
+        assertTrue(cursor.moveToPosition(1));
+
+        CharArrayBuffer buffer = new CharArrayBuffer(8);
+        cursor.copyStringToBuffer(2, buffer);
+        assertEquals("1000", new String(buffer.data, 0, buffer.sizeCopied));
+        assertEquals(QuantityBuckets.BUCKET_TO_10K, cursor.getInt(3));
+        cursor.close();
+    }
+
+    @Test
+    public void formatsChangedQuantitiesIntoTheBuffer() {
+        LongSparseArray<Integer> changes = new LongSparseArray<>();
+        changes.put(2, 234);
+        Cursor cursor = PendingSalesCursor.wrap(productRows(), changes, -1);
+        assertTrue(cursor.moveToPosition(1));
+
+        // A buffer long enough is filled in place
+        CharArrayBuffer buffer = new CharArrayBuffer(8);
+        char[] data = buffer.data;
+        cursor.copyStringToBuffer(2, buffer);
+        assertSame(data, buffer.data);
+        assertEquals("1234", new String(buffer.data, 0, buffer.sizeCopied));
+        cursor.copyStringToBuffer(3, buffer);
+        assertEquals(String.valueOf(QuantityBuckets.BUCKET_TO_10K), new String(buffer.data, 0, buffer.sizeCopied));
+        cursor.close();
+    }
+
+    @Test
+    public void wrapsOnlyCursorsWithChanges() {
+        Cursor rows = productRows();
+        assertSame(rows, PendingSalesCursor.wrap(rows, new LongSparseArray<Integer>(), -1));
+        rows.close();
+    }
+
+    @Test
+    public void supportsSingleProductsWithoutTheIdColumn() {
+        assertTrue(PendingSalesCursor.supports(null, -1));
+        assertTrue(PendingSalesCursor.supports(new String[] {COLUMN_PROD_NAME}, -1));
+        assertTrue(PendingSalesCursor.supports(new String[] {COLUMN_PROD_QUANTITY}, 1));
+        assertFalse(PendingSalesCursor.supports(new String[] {COLUMN_PROD_QUANTITY}, -1));
+        assertFalse(PendingSalesCursor.supports(new String[] {COLUMN_PROD_ID, COLUMN_STOCK_BUCKET}, -1));
+    }
+
+    /**
+     * Rows of two products as they are in the database.
+     */
+    private static Cursor productRows() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[] {1L, "Pen", 10, QuantityBuckets.BUCKET_TO_100});
+        cursor.addRow(new Object[] {2L, "Paper", 1000, QuantityBuckets.BUCKET_TO_10K});
+        return cursor;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.android.inventoryappr.data;
+
+import android.os.Bundle;
+import android.util.LongSparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_SOLD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the lock-free counters of {@link PendingSales}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PendingSalesTest {
+
+    private static final long PRODUCT_ID = 7;
+
+    private final PendingSales pendingSales = new PendingSales();
+
+    @Test
+    public void sellNeedsTheQuantity() {
+        Bundle result = new Bundle();
+        assertEquals(-1, pendingSales.sell(PRODUCT_ID, 1, result));
+        assertTrue(result.isEmpty());
+        assertFalse(pendingSales.hasPendingSales());
+    }
+
+    @Test
+    public void sellTakesFromTheLoadedQuantity() {
+        pendingSales.load(PRODUCT_ID, 5);
+
+        Bundle result = new Bundle();
+        assertEquals(1, pendingSales.sell(PRODUCT_ID, 2, result));
+        assertTrue(result.getBoolean(EXTRA_SOLD));
+        assertEquals(3, result.getInt(EXTRA_QUANTITY));
+
+        result = new Bundle();
+        assertEquals(2, pendingSales.sell(PRODUCT_ID, 3, result));
+        assertTrue(result.getBoolean(EXTRA_SOLD));
+        assertEquals(0, result.getInt(EXTRA_QUANTITY));
+        assertTrue(pendingSales.hasPendingSales());
+    }
+
+    @Test
+    public void sellDoesntTakeMoreThanAvailable() {
+        pendingSales.load(PRODUCT_ID, 2);
+
+        Bundle result = new Bundle();
+        assertEquals(0, pendingSales.sell(PRODUCT_ID, 3, result));
+        assertFalse(result.getBoolean(EXTRA_SOLD));
+        assertEquals(2, result.getInt(EXTRA_QUANTITY));
+        assertFalse(pendingSales.hasPendingSales());
+        assertEquals(0, pendingSales.drain().size());
+    }
+
+    @Test
+    public void loadKeepsAKnownQuantity() {
+        pendingSales.load(PRODUCT_ID, 5);
+        sell(PRODUCT_ID, 1);
+        pendingSales.load(PRODUCT_ID, 100);
+        assertEquals(3, sell(PRODUCT_ID, 1));
+    }
+
+    @Test
+    public void packsLargeQuantitiesAndChanges() {
+        pendingSales.load(PRODUCT_ID, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE - 1000, sell(PRODUCT_ID, 1000));
+        assertEquals(-1000, (int) pendingSales.getUnwrittenChanges().get(PRODUCT_ID));
+        assertEquals(Integer.MAX_VALUE - 1001, sell(PRODUCT_ID, 1));
+    }
+
+    @Test
+    public void drainTakesTheChangesOnce() {
+        pendingSales.load(PRODUCT_ID, 10);
+        pendingSales.load(PRODUCT_ID + 1, 10);
+        sell(PRODUCT_ID, 1);
+        sell(PRODUCT_ID, 2);
+        sell(PRODUCT_ID + 1, 4);
+
+        LongSparseArray<Integer> changes = pendingSales.drain();
+        assertEquals(2, changes.size());
+        assertEquals(-3, (int) changes.get(PRODUCT_ID));
+        assertEquals(-4, (int) changes.get(PRODUCT_ID + 1));
+        assertFalse(pendingSales.hasPendingSales());
+        assertEquals(0, pendingSales.drain().size());
+
+        // The available quantity stays after the drain
+        assertEquals(6, sell(PRODUCT_ID, 1));
+        assertEquals(-1, (int) pendingSales.drain().get(PRODUCT_ID));
+    }
+
+    @Test
+    public void getUnwrittenChangesDoesntTakeThem() {
+        pendingSales.load(PRODUCT_ID, 10);
+        sell(PRODUCT_ID, 3);
+
+        assertEquals(-3, (int) pendingSales.getUnwrittenChanges().get(PRODUCT_ID));
+        assertEquals(-3, (int) pendingSales.getUnwrittenChanges().get(PRODUCT_ID));
+        assertEquals(-3, (int) pendingSales.drain().get(PRODUCT_ID));
+        assertEquals(0, pendingSales.getUnwrittenChanges().size());
+    }
+
+    @Test
+    public void restoreGivesTheChangesBack() {
+        pendingSales.load(PRODUCT_ID, 10);
+        sell(PRODUCT_ID, 3);
+        LongSparseArray<Integer> changes = pendingSales.drain();
+        // A sale made while the drained changes were being written
+        sell(PRODUCT_ID, 1);
+
+        pendingSales.restore(changes);
+        assertTrue(pendingSales.hasPendingSales());
+        assertEquals(-4, (int) pendingSales.drain().get(PRODUCT_ID));
+        // The available quantity already accounted for the restored sales
+        assertEquals(5, sell(PRODUCT_ID, 1));
+    }
+
+    @Test
+    public void evictKeepsAProductWithUnwrittenSales() {
+        pendingSales.load(PRODUCT_ID, 10);
+        sell(PRODUCT_ID, 1);
+
+        pendingSales.evict(PRODUCT_ID);
+        assertEquals(8, sell(PRODUCT_ID, 1));
+
+        pendingSales.drain();
+        pendingSales.evict(PRODUCT_ID);
+        assertEquals(-1, pendingSales.sell(PRODUCT_ID, 1, new Bundle()));
+        assertEquals(0, pendingSales.getUnwrittenChanges().size());
+    }
+
+    @Test
+    public void evictAllKeepsTheProductsWithUnwrittenSales() {
+        pendingSales.load(PRODUCT_ID, 10);
+        pendingSales.load(PRODUCT_ID + 1, 10);
+        sell(PRODUCT_ID, 1);
+
+        pendingSales.evictAll();
+        assertEquals(8, sell(PRODUCT_ID, 1));
+        assertEquals(-1, pendingSales.sell(PRODUCT_ID + 1, 1, new Bundle()));
+    }
+
+    @Test
+    public void restoreSkipsEvictedProducts() {
+        pendingSales.load(PRODUCT_ID, 10);
+        sell(PRODUCT_ID, 1);
+        LongSparseArray<Integer> changes = pendingSales.drain();
+        // Changed by another write, which has replaced the quantity
+        pendingSales.evict(PRODUCT_ID);
+
+        pendingSales.restore(changes);
+        assertEquals(0, pendingSales.drain().size());
+        assertEquals(-1, pendingSales.sell(PRODUCT_ID, 1, new Bundle()));
+    }
+
+    @Test
+    public void reloadTakesTheLaterSalesFromTheDatabaseQuantity() {
+        pendingSales.load(PRODUCT_ID, 10);
+        sell(PRODUCT_ID, 5);
+        pendingSales.drain();
+        // Sold while the drained sales were being written
+        sell(PRODUCT_ID, 1);
+
+        // The drained sales couldn't be written, the database has only 3 items
+        pendingSales.reload(PRODUCT_ID, 3);
+        assertEquals(1, sell(PRODUCT_ID, 1));
+        assertEquals(-2, (int) pendingSales.drain().get(PRODUCT_ID));
+    }
+
+    @Test
+    public void reloadStopsSalesWhenTheLaterSalesDontFit() {
+        pendingSales.load(PRODUCT_ID, 10);
+        sell(PRODUCT_ID, 5);
+        pendingSales.drain();
+        sell(PRODUCT_ID, 2);
+
+        pendingSales.reload(PRODUCT_ID, 1);
+        Bundle result = new Bundle();
+        assertEquals(0, pendingSales.sell(PRODUCT_ID, 1, result));
+        assertFalse(result.getBoolean(EXTRA_SOLD));
+        // The later sales are still written, or dropped if they don't fit either
+        assertEquals(-2, (int) pendingSales.drain().get(PRODUCT_ID));
+    }
+
+    @Test
+    public void removeDropsTheProductAndItsSales() {
+        pendingSales.load(PRODUCT_ID, 10);
+        sell(PRODUCT_ID, 1);
+
+        pendingSales.remove(PRODUCT_ID);
+        assertEquals(0, pendingSales.getUnwrittenChanges().size());
+        assertEquals(0, pendingSales.drain().size());
+        assertEquals(-1, pendingSales.sell(PRODUCT_ID, 1, new Bundle()));
+    }
+
+    @Test
+    public void concurrentSalesNeitherOversellNorGetLost() throws Exception {
+        final int quantity = 20000;
+        final int threads = 8;
+        final int salesPerThread = 5000;
+        pendingSales.load(PRODUCT_ID, quantity);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean selling = new AtomicBoolean(true);
+        List<Future<Integer>> sellers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            sellers.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    int sold = 0;
+                    for (int sale = 0; sale < salesPerThread; sale++) {
+                        Bundle result = new Bundle();
+                        if (pendingSales.sell(PRODUCT_ID, 1, result) > 0) {
+                            sold++;
+                        }
+                    }
+                    return sold;
+                }
+            }));
+        }
+        // Drains the changes like the flushes of the provider, concurrently with the sales
+        Future<Integer> drainer = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                start.await();
+                int drained = 0;
+                while (selling.get()) {
+                    drained += sum(pendingSales.drain());
+                }
+                return drained + sum(pendingSales.drain());
+            }
+        });
+
+        start.countDown();
+        int sold = 0;
+        for (Future<Integer> seller : sellers) {
+            sold += seller.get();
+        }
+        selling.set(false);
+        int drained = drainer.get();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(quantity, sold);
+        assertEquals(-quantity, drained);
+        assertFalse(pendingSales.hasPendingSales());
+    }
+
+    /**
+     * Sell a product whose quantity is loaded.
+     *
+     * @return the quantity left.
+     */
+    private int sell(long productId, int count) {
+        Bundle result = new Bundle();
+        assertTrue(pendingSales.sell(productId, count, result) > 0);
+        assertTrue(result.getBoolean(EXTRA_SOLD));
+        return result.getInt(EXTRA_QUANTITY);
+    }
+
+    private static int sum(LongSparseArray<Integer> changes) {
+        int sum = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            sum += changes.valueAt(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,421 @@
+package com.example.android.inventoryappr.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappr.data.ProductContract.SupplierEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.example.android.inventoryappr.data.ProductContract.EXTRA_SELL_COUNT;
+import static com.example.android.inventoryappr.data.ProductContract.METHOD_SELL;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_PRICE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_PROD_QUANTITY;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_ID;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.COLUMN_SUPPLIER_PHONE;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.CONTENT_URI;
+import static com.example.android.inventoryappr.data.ProductContract.ProductEntry.TABLE_NAME;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_AFTER_ID;
+import static com.example.android.inventoryappr.data.ProductContract.QUERY_PARAMETER_LIMIT;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput and latency of the real {@link ProductProvider} and {@link ProductDbHelper} at
+ * several table sizes, run on the local JVM under Robolectric.
+ * <p>
+ * Skipped unless enabled: run with "./gradlew :app:testDebugUnitTest -Pbenchmark". The table
+ * sizes can be set with -PbenchmarkSizes=10000,100000. The results are written as JSON to
+ * app/build/reports/benchmark/provider-benchmark.json, with the ops/sec and the p50/p99
+ * latencies in microseconds of each operation at each size. The compiled statements of
+ * {@link ProductStatements} are also compared with the SQLiteDatabase methods they replace.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ProductProviderBenchmark {
+
+    /* Rows inserted per bulk insert while filling the table */
+    private static final int BULK_INSERT_CHUNK = 10000;
+
+    /* Number of timed operations of each kind at each table size */
+    private static final int OPERATIONS = 1000;
+
+    /* Rows in a page of the list, as in the app */
+    private static final int PAGE_SIZE = 50;
+
+    /* Number of distinct suppliers of the generated products */
+    private static final int SUPPLIER_COUNT = 50;
+
+    /* Number of products inserted, updated and deleted by each kind of statement */
+    private static final int STATEMENT_POOL_ROWS = 10000;
+
+    private ProductProvider provider;
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Provider benchmarks are disabled, run with -Pbenchmark",
+                Boolean.getBoolean("benchmark.enabled"));
+    }
+
+    @Test
+    public void benchmarkProvider() throws IOException, JSONException {
+        JSONArray results = new JSONArray();
+        for (String size : System.getProperty("benchmark.sizes").split(",")) {
+            results.put(benchmarkTableSize(Integer.parseInt(size.trim())));
+        }
+
+        File outputFile = new File(System.getProperty("benchmark.output"));
+        outputFile.getParentFile().mkdirs();
+        Writer writer = new FileWriter(outputFile);
+        try {
+            writer.write(new JSONObject().put("results", results).toString(2));
+        } finally {
+            writer.close();
+        }
+        System.out.println("Provider benchmark results written to " + outputFile);
+    }
+
+    /**
+     * Run all the operations on a new database with the given number of products.
+     */
+    private JSONObject benchmarkTableSize(int rowCount) throws JSONException {
+        RuntimeEnvironment.application.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        provider = Robolectric.buildContentProvider(ProductProvider.class)
+                .create(ProductContract.CONTENT_AUTHORITY).get();
+        JSONObject operations = new JSONObject();
+
+        // Fill the table, each bulk insert is one operation
+        LatencyRecorder bulkInsert = new LatencyRecorder(rowCount / BULK_INSERT_CHUNK + 1);
+        for (int inserted = 0; inserted < rowCount; inserted += BULK_INSERT_CHUNK) {
+            ContentValues[] chunk = new ContentValues[Math.min(BULK_INSERT_CHUNK, rowCount - inserted)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = newProduct(inserted + i);
+            }
+            long start = System.nanoTime();
+            provider.bulkInsert(CONTENT_URI, chunk);
+            bulkInsert.record(start, chunk.length);
+        }
+        operations.put("bulk_insert", bulkInsert.toJson());
+        long minId = queryEdgeId("MIN(" + COLUMN_PROD_ID + ")");
+        long maxId = queryEdgeId("MAX(" + COLUMN_PROD_ID + ")");
+
+        LatencyRecorder insert = new LatencyRecorder(OPERATIONS);
+        for (int i = 0; i < OPERATIONS; i++) {
+            ContentValues values = newProduct(rowCount + i);
+            long start = System.nanoTime();
+            provider.insert(CONTENT_URI, values);
+            insert.record(start, 1);
+        }
+        operations.put("insert", insert.toJson());
+
+        // A page of the list after a random product, read to the end as the list does
+        LatencyRecorder listQuery = new LatencyRecorder(OPERATIONS);
+        String[] listProjection = {COLUMN_PROD_ID, COLUMN_PROD_NAME, COLUMN_PROD_PRICE, COLUMN_PROD_QUANTITY};
+        for (int i = 0; i < OPERATIONS; i++) {
+            Uri pageUri = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(randomId(minId, maxId)))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                    .build();
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(pageUri, listProjection, null, null, null);
+            int rows = readAll(cursor);
+            listQuery.record(start, rows);
+        }
+        operations.put("list_query", listQuery.toJson());
+
+        LatencyRecorder rowQuery = new LatencyRecorder(OPERATIONS);
+        for (int i = 0; i < OPERATIONS; i++) {
+            Uri productUri = ContentUris.withAppendedId(CONTENT_URI, randomId(minId, maxId));
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(productUri, null, null, null, null);
+            int rows = readAll(cursor);
+            rowQuery.record(start, rows);
+        }
+        operations.put("row_query", rowQuery.toJson());
+
+        LatencyRecorder sell = new LatencyRecorder(OPERATIONS);
+        Bundle extras = new Bundle();
+        extras.putInt(EXTRA_SELL_COUNT, 1);
+        for (int i = 0; i < OPERATIONS; i++) {
+            String productId = String.valueOf(randomId(minId, maxId));
+            long start = System.nanoTime();
+            provider.call(METHOD_SELL, productId, extras);
+            sell.record(start, 1);
+        }
+        operations.put("sell", sell.toJson());
+
+        // Sales of the same product in a row, as at the checkout, each one buffered by the provider
+        LatencyRecorder sellBurst = new LatencyRecorder(OPERATIONS);
+        String burstProductId = String.valueOf(randomId(minId, maxId));
+        for (int i = 0; i < OPERATIONS; i++) {
+            long start = System.nanoTime();
+            provider.call(METHOD_SELL, burstProductId, extras);
+            sellBurst.record(start, 1);
+        }
+        operations.put("sell_burst", sellBurst.toJson());
+
+        LatencyRecorder updateQuantity = new LatencyRecorder(OPERATIONS);
+        ContentValues quantityValues = new ContentValues();
+        for (int i = 0; i < OPERATIONS; i++) {
+            Uri productUri = ContentUris.withAppendedId(CONTENT_URI, randomId(minId, maxId));
+            quantityValues.put(COLUMN_PROD_QUANTITY, random.nextInt(1000));
+            long start = System.nanoTime();
+            int rows = provider.update(productUri, quantityValues, null, null);
+            updateQuantity.record(start, rows);
+        }
+        operations.put("update_quantity", updateQuantity.toJson());
+
+        // Distinct products, so every deletion removes a row
+        LatencyRecorder deleteById = new LatencyRecorder(OPERATIONS);
+        int rowsDeletedById = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            Uri productUri = ContentUris.withAppendedId(CONTENT_URI, minId + i);
+            long start = System.nanoTime();
+            int rows = provider.delete(productUri, null, null);
+            deleteById.record(start, rows);
+            rowsDeletedById += rows;
+        }
+        operations.put("delete_by_id", deleteById.toJson());
+
+        LatencyRecorder deleteAll = new LatencyRecorder(1);
+        long start = System.nanoTime();
+        int rowsDeleted = provider.delete(CONTENT_URI, null, null);
+        deleteAll.record(start, rowsDeleted);
+        assertEquals(rowCount + OPERATIONS - rowsDeletedById, rowsDeleted);
+        operations.put("delete_all", deleteAll.toJson());
+
+        provider.shutdown();
+        return new JSONObject().put("rows", rowCount).put("operations", operations);
+    }
+
+    /**
+     * Compare the pooled {@link ProductStatements} with the SQLiteDatabase methods they replace,
+     * on the same database of {@link #STATEMENT_POOL_ROWS} products. The results are written next
+     * to the provider results, as statement-pool-benchmark.json.
+     */
+    @Test
+    public void benchmarkStatementPool() throws IOException, JSONException {
+        RuntimeEnvironment.application.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        ProductDbHelper dbHelper = new ProductDbHelper(RuntimeEnvironment.application);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        ProductStatements statements = new ProductStatements(database);
+        JSONObject operations = new JSONObject();
+        try {
+            ContentValues supplierValues = new ContentValues();
+            supplierValues.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+            supplierValues.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "+15550000");
+            long supplierId = database.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplierValues);
+
+            // Each pair of measures inserts, updates and then deletes the same number of products
+            for (boolean pooled : new boolean[] {false, true}) {
+                String suffix = pooled ? "_pooled" : "_database";
+                long[] productIds = new long[STATEMENT_POOL_ROWS];
+
+                LatencyRecorder insert = new LatencyRecorder(STATEMENT_POOL_ROWS);
+                for (int i = 0; i < STATEMENT_POOL_ROWS; i++) {
+                    long start = System.nanoTime();
+                    if (pooled) {
+                        SQLiteStatement statement = statements.acquire(ProductStatements.INSERT_PRODUCT);
+                        try {
+                            statement.bindString(1, "Product " + i);
+                            statement.bindLong(2, i);
+                            statement.bindLong(3, i);
+                            statement.bindLong(4, supplierId);
+                            productIds[i] = statement.executeInsert();
+                        } finally {
+                            statements.release(ProductStatements.INSERT_PRODUCT, statement);
+                        }
+                    } else {
+                        ContentValues values = new ContentValues();
+                        values.put(COLUMN_PROD_NAME, "Product " + i);
+                        values.put(COLUMN_PROD_PRICE, i);
+                        values.put(COLUMN_PROD_QUANTITY, i);
+                        values.put(COLUMN_SUPPLIER_ID, supplierId);
+                        productIds[i] = database.insert(TABLE_NAME, null, values);
+                    }
+                    insert.record(start, 1);
+                }
+                operations.put("insert" + suffix, insert.toJson());
+
+                LatencyRecorder updateQuantity = new LatencyRecorder(STATEMENT_POOL_ROWS);
+                for (int i = 0; i < STATEMENT_POOL_ROWS; i++) {
+                    int quantity = random.nextInt(1000);
+                    long start = System.nanoTime();
+                    int rows;
+                    if (pooled) {
+                        SQLiteStatement statement = statements.acquire(ProductStatements.UPDATE_QUANTITY);
+                        try {
+                            statement.bindLong(1, quantity);
+                            statement.bindLong(2, productIds[i]);
+                            rows = statement.executeUpdateDelete();
+                        } finally {
+                            statements.release(ProductStatements.UPDATE_QUANTITY, statement);
+                        }
+                    } else {
+                        ContentValues values = new ContentValues();
+                        values.put(COLUMN_PROD_QUANTITY, quantity);
+                        rows = database.update(TABLE_NAME, values, COLUMN_PROD_ID + "=?",
+                                new String[] {String.valueOf(productIds[i])});
+                    }
+                    updateQuantity.record(start, rows);
+                }
+                operations.put("update_quantity" + suffix, updateQuantity.toJson());
+
+                LatencyRecorder deleteById = new LatencyRecorder(STATEMENT_POOL_ROWS);
+                for (int i = 0; i < STATEMENT_POOL_ROWS; i++) {
+                    long start = System.nanoTime();
+                    int rows;
+                    if (pooled) {
+                        SQLiteStatement statement = statements.acquire(ProductStatements.DELETE_PRODUCT);
+                        try {
+                            statement.bindLong(1, productIds[i]);
+                            rows = statement.executeUpdateDelete();
+                        } finally {
+                            statements.release(ProductStatements.DELETE_PRODUCT, statement);
+                        }
+                    } else {
+                        rows = database.delete(TABLE_NAME, COLUMN_PROD_ID + "=?",
+                                new String[] {String.valueOf(productIds[i])});
+                    }
+                    deleteById.record(start, rows);
+                }
+                operations.put("delete_by_id" + suffix, deleteById.toJson());
+            }
+        } finally {
+            statements.close();
+            dbHelper.close();
+        }
+
+        File outputFile = new File(new File(System.getProperty("benchmark.output")).getParentFile(),
+                "statement-pool-benchmark.json");
+        outputFile.getParentFile().mkdirs();
+        Writer writer = new FileWriter(outputFile);
+        try {
+            writer.write(new JSONObject()
+                    .put("rows", STATEMENT_POOL_ROWS)
+                    .put("operations", operations)
+                    .toString(2));
+        } finally {
+            writer.close();
+        }
+        System.out.println("Statement pool benchmark results written to " + outputFile);
+    }
+
+    /**
+     * Return the values of a generated product.
+     */
+    private ContentValues newProduct(int index) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PROD_NAME, "Product " + index);
+        values.put(COLUMN_PROD_PRICE, random.nextInt(100000));
+        // Enough items for all the sales
+        values.put(COLUMN_PROD_QUANTITY, OPERATIONS + random.nextInt(1000));
+        int supplier = index % SUPPLIER_COUNT;
+        values.put(COLUMN_SUPPLIER_NAME, "Supplier " + supplier);
+        values.put(COLUMN_SUPPLIER_PHONE, "+1555000" + supplier);
+        return values;
+    }
+
+    private long randomId(long minId, long maxId) {
+        return minId + (long) (random.nextDouble() * (maxId - minId + 1));
+    }
+
+    /**
+     * Return the value of an aggregate of the product IDs, e.g. "MIN(_id)".
+     */
+    private long queryEdgeId(String aggregate) {
+        Cursor cursor = provider.query(CONTENT_URI, new String[] {aggregate}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read every column of every row of the cursor and close it.
+     *
+     * @return the number of rows.
+     */
+    private static int readAll(Cursor cursor) {
+        try {
+            int columnCount = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columnCount; column++) {
+                    cursor.getString(column);
+                }
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records the latencies and the rows of the operations of one kind.
+     */
+    private static class LatencyRecorder {
+        private final long[] latencies;
+        private int count;
+        private long rows;
+        private long totalNanos;
+
+        LatencyRecorder(int capacity) {
+            latencies = new long[capacity];
+        }
+
+        void record(long startNanos, int operationRows) {
+            long nanos = System.nanoTime() - startNanos;
+            latencies[count++] = nanos;
+            totalNanos += nanos;
+            rows += operationRows;
+        }
+
+        JSONObject toJson() throws JSONException {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            double seconds = totalNanos / 1e9;
+            return new JSONObject()
+                    .put("operations", count)
+                    .put("rows", rows)
+                    .put("ops_per_sec", count / seconds)
+                    .put("rows_per_sec", rows / seconds)
+                    .put("p50_us", percentile(sorted, 0.50) / 1000.0)
+                    .put("p99_us", percentile(sorted, 0.99) / 1000.0);
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(index, 0)];
+        }
+    }
+}
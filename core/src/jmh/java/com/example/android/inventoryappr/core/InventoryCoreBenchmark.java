@@ -0,0 +1,92 @@
+package com.example.android.inventoryappr.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the product validation, form parsing and quantity bucketing. Run with
+ * "./gradlew :core:jmh", the GC profiler adds the allocation rate (gc.alloc.rate.norm is the
+ * number of bytes allocated per operation).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryCoreBenchmark {
+
+    /* Number of different inputs, cycled through so the results can't be constant folded */
+    private static final int INPUT_COUNT = 1024;
+
+    private String[] productNames;
+    private String[] priceTexts;
+    private String[] quantityTexts;
+    private Integer[] prices;
+    private Integer[] quantities;
+    private int[] quantityValues;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        productNames = new String[INPUT_COUNT];
+        priceTexts = new String[INPUT_COUNT];
+        quantityTexts = new String[INPUT_COUNT];
+        prices = new Integer[INPUT_COUNT];
+        quantities = new Integer[INPUT_COUNT];
+        quantityValues = new int[INPUT_COUNT];
+        for (int i = 0; i < INPUT_COUNT; i++) {
+            int price = random.nextInt(100000);
+            // Quantities spread over all the orders of magnitude
+            int quantity = random.nextInt((int) Math.pow(10, 1 + random.nextInt(8)));
+            productNames[i] = " Product " + i + " ";
+            priceTexts[i] = String.valueOf(price);
+            quantityTexts[i] = String.valueOf(quantity);
+            prices[i] = price;
+            quantities[i] = quantity;
+            quantityValues[i] = quantity;
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (INPUT_COUNT - 1);
+        return next;
+    }
+
+    @Benchmark
+    public void validateProduct() {
+        int i = nextIndex();
+        ProductRules.validateProduct(productNames[i], prices[i], quantities[i], "Supplier", "+123456789");
+    }
+
+    @Benchmark
+    public ProductInput parseInput() {
+        int i = nextIndex();
+        return ProductInput.parse(productNames[i], priceTexts[i], quantityTexts[i], " Supplier ", "+123456789");
+    }
+
+    @Benchmark
+    public int parseNumber() {
+        return ProductInput.parseNumber(quantityTexts[nextIndex()]);
+    }
+
+    @Benchmark
+    public void bucketQuantity(Blackhole blackhole) {
+        int i = nextIndex();
+        blackhole.consume(QuantityBuckets.bucketOf(quantityValues[i]));
+        blackhole.consume(QuantityBuckets.bucketOf(quantityTexts[i]));
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.inventoryappr.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CsvReader} reads the records of a CSV file from a channel, one at a time, holding only
+ * a fixed size buffer of the file in memory.
+ * <p>
+ * Fields are separated by commas and records by line breaks. A field may be quoted with double
+ * quotes, then it can contain commas, line breaks and doubled double quotes. Blank lines are
+ * skipped.
+ */
+public final class CsvReader implements Closeable {
+
+    /* Size of the byte and char buffers */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* Returned by nextChar() at the end of the input */
+    private static final int END_OF_INPUT = -1;
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    /* The fields of the record being read */
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+
+    private boolean endOfInput;
+    private boolean flushed;
+    private boolean started;
+    private long bytesRead;
+    private long lineNumber = 1;
+    private long recordLineNumber;
+
+    /**
+     * Constructs a new {@link CsvReader} of UTF-8 text.
+     *
+     * @param channel The channel to read from. It's closed by {@link #close()}.
+     */
+    public CsvReader(ReadableByteChannel channel) {
+        this(channel, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Constructs a new {@link CsvReader}.
+     *
+     * @param channel The channel to read from. It's closed by {@link #close()}.
+     * @param charset The charset of the text.
+     */
+    public CsvReader(ReadableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        // Nothing decoded yet
+        chars.flip();
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the fields of the record, or null at the end of the input.
+     * @throws IOException if the input can't be read, isn't valid text or ends inside a quoted field.
+     */
+    public String[] readRecord() throws IOException {
+        while (true) {
+            int c = nextChar();
+            if (c == END_OF_INPUT) {
+                return null;
+            }
+            recordLineNumber = lineNumber;
+            fields.clear();
+            field.setLength(0);
+            boolean quoted = false;
+            boolean blank = true;
+            while (true) {
+                if (quoted) {
+                    if (c == END_OF_INPUT) {
+                        throw new IOException("Unterminated quoted field in the record at line " + recordLineNumber);
+                    }
+                    if (c == '"') {
+                        c = nextChar();
+                        if (c != '"') {
+                            // The closing quote, the next char is handled as unquoted
+                            quoted = false;
+                            continue;
+                        }
+                    } else if (c == '\n') {
+                        lineNumber++;
+                    }
+                    field.append((char) c);
+                } else if (c == ',') {
+                    endField();
+                    blank = false;
+                } else if (c == '\n' || c == END_OF_INPUT) {
+                    if (c == '\n') {
+                        lineNumber++;
+                    }
+                    break;
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                    blank = false;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                    blank = false;
+                }
+                c = nextChar();
+            }
+            if (!blank) {
+                endField();
+                return fields.toArray(new String[fields.size()]);
+            }
+        }
+    }
+
+    private void endField() {
+        fields.add(field.toString());
+        field.setLength(0);
+    }
+
+    /**
+     * @return the line number of the first line of the last record read, starting at 1.
+     */
+    public long getRecordLineNumber() {
+        return recordLineNumber;
+    }
+
+    /**
+     * @return the number of bytes read from the channel so far. It runs ahead of the records read
+     * by at most the buffer size.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Return the next char of the input, or {@link #END_OF_INPUT}.
+     */
+    private int nextChar() throws IOException {
+        if (!chars.hasRemaining() && !fill()) {
+            return END_OF_INPUT;
+        }
+        char c = chars.get();
+        if (!started) {
+            started = true;
+            if (c == BYTE_ORDER_MARK) {
+                return nextChar();
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Decode the next chars of the input into the empty char buffer.
+     *
+     * @return false at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        if (flushed) {
+            return false;
+        }
+        chars.clear();
+        while (true) {
+            if (!endOfInput) {
+                int count = channel.read(bytes);
+                if (count < 0) {
+                    endOfInput = true;
+                } else {
+                    bytesRead += count;
+                }
+            }
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            bytes.compact();
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isOverflow()) {
+                // The char buffer is full
+                break;
+            }
+            if (endOfInput) {
+                decoder.flush(chars);
+                flushed = true;
+                break;
+            }
+            if (chars.position() > 0) {
+                break;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.inventoryappr.core;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * {@link CsvWriter} writes CSV records that {@link CsvReader} reads back. Fields are quoted only
+ * when they contain a comma, a double quote, a line break or surrounding spaces.
+ */
+public final class CsvWriter implements Closeable, Flushable {
+
+    private final Writer writer;
+
+    /* Whether a field of the current record has been written */
+    private boolean recordStarted;
+
+    /**
+     * Constructs a new {@link CsvWriter}.
+     *
+     * @param writer The writer to write to, preferably buffered. It's closed by {@link #close()}.
+     */
+    public CsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Write a complete record.
+     */
+    public void writeRecord(String... fields) throws IOException {
+        for (String field : fields) {
+            writeField(field);
+        }
+        endRecord();
+    }
+
+    /**
+     * Write the next field of the current record. A null field is written as an empty one.
+     */
+    public void writeField(CharSequence field) throws IOException {
+        if (recordStarted) {
+            writer.write(',');
+        }
+        recordStarted = true;
+        if (field == null) {
+            return;
+        }
+        if (!needsQuotes(field)) {
+            writer.append(field);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Write the next field of the current record.
+     */
+    public void writeField(long field) throws IOException {
+        if (recordStarted) {
+            writer.write(',');
+        }
+        recordStarted = true;
+        writer.write(Long.toString(field));
+    }
+
+    /**
+     * End the current record.
+     */
+    public void endRecord() throws IOException {
+        writer.write('\n');
+        recordStarted = false;
+    }
+
+    private static boolean needsQuotes(CharSequence field) {
+        int length = field.length();
+        if (length == 0) {
+            return false;
+        }
+        if (field.charAt(0) == ' ' || field.charAt(length - 1) == ' ') {
+            return true;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.inventoryappr.core;
+
+/**
+ * {@link ProductInput} is the product typed by the user into the product form, parsed and
+ * checked. The fields are trimmed, none of them may be blank, and the price and quantity must be
+ * numbers of at most {@link #MAX_NUMBER_LENGTH} digits.
+ */
+public final class ProductInput {
+
+    /* Maximum number of digits of the price and quantity, so they always fit in an int */
+    public static final int MAX_NUMBER_LENGTH = 9;
+
+    /* Outcomes of the parsing, see {@link #getError()} */
+    public static final int NO_ERROR = 0;
+    public static final int ERROR_BLANK_FIELDS = 1;
+    public static final int ERROR_INVALID_PRICE = 2;
+    public static final int ERROR_INVALID_QUANTITY = 3;
+
+    private final int error;
+    private final String productName;
+    private final int price;
+    private final int quantity;
+    private final String supplierName;
+    private final String supplierPhone;
+
+    private ProductInput(int error, String productName, int price, int quantity,
+                         String supplierName, String supplierPhone) {
+        this.error = error;
+        this.productName = productName;
+        this.price = price;
+        this.quantity = quantity;
+        this.supplierName = supplierName;
+        this.supplierPhone = supplierPhone;
+    }
+
+    /**
+     * Parse the text of the form fields.
+     *
+     * @return the parsed product. Check {@link #getError()} before using its values.
+     */
+    public static ProductInput parse(CharSequence productNameText, CharSequence priceText,
+                                     CharSequence quantityText, CharSequence supplierNameText,
+                                     CharSequence supplierPhoneText) {
+        String productName = productNameText.toString().trim();
+        String priceString = priceText.toString().trim();
+        String quantityString = quantityText.toString().trim();
+        String supplierName = supplierNameText.toString().trim();
+        String supplierPhone = supplierPhoneText.toString().trim();
+
+        // None of the fields may be empty
+        if (productName.isEmpty() || priceString.isEmpty() || quantityString.isEmpty()
+                || supplierName.isEmpty() || supplierPhone.isEmpty()) {
+            return failure(ERROR_BLANK_FIELDS);
+        }
+        // Price and Quantity cannot be less than 0
+        int price = parseNumber(priceString);
+        if (price < 0) {
+            return failure(ERROR_INVALID_PRICE);
+        }
+        int quantity = parseNumber(quantityString);
+        if (quantity < 0) {
+            return failure(ERROR_INVALID_QUANTITY);
+        }
+        return new ProductInput(NO_ERROR, productName, price, quantity, supplierName, supplierPhone);
+    }
+
+    private static ProductInput failure(int error) {
+        return new ProductInput(error, null, -1, -1, null, null);
+    }
+
+    /**
+     * Parse a number of at most {@link #MAX_NUMBER_LENGTH} decimal digits.
+     *
+     * @return the number, or -1 if the text isn't such a number.
+     */
+    public static int parseNumber(CharSequence text) {
+        int length = text.length();
+        if (length == 0 || length > MAX_NUMBER_LENGTH) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 0; i < length; i++) {
+            char digit = text.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            number = number * 10 + (digit - '0');
+        }
+        return number;
+    }
+
+    /**
+     * @return {@link #NO_ERROR} if the input is a valid product, otherwise the first problem found.
+     */
+    public int getError() {
+        return error;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public String getSupplierName() {
+        return supplierName;
+    }
+
+    public String getSupplierPhone() {
+        return supplierPhone;
+    }
+}
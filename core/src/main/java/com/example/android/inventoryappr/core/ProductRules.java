@@ -0,0 +1,69 @@
+package com.example.android.inventoryappr.core;
+
+/**
+ * {@link ProductRules} holds the rules a product must follow to be stored in the inventory.
+ * Each check throws {@link IllegalArgumentException} if the value breaks the rule.
+ */
+public final class ProductRules {
+
+    // To prevent someone from accidentally instantiating the rules class,
+    // make the constructor private.
+    private ProductRules() {}
+
+    /**
+     * Check that the product name is not null.
+     */
+    public static void validateName(String productName) {
+        if (productName == null) {
+            throw new IllegalArgumentException("Product requires a name");
+        }
+    }
+
+    /**
+     * Check that the price is not null and not negative.
+     */
+    public static void validatePrice(Integer productPrice) {
+        if (productPrice == null || productPrice < 0) {
+            throw new IllegalArgumentException("Product requires a valid price");
+        }
+    }
+
+    /**
+     * Check that the quantity is not null and not negative.
+     */
+    public static void validateQuantity(Integer productQuantity) {
+        if (productQuantity == null || productQuantity < 0) {
+            throw new IllegalArgumentException("Product requires a valid quantity");
+        }
+    }
+
+    /**
+     * Check that the supplier name is not null.
+     */
+    public static void validateSupplierName(String supplierName) {
+        if (supplierName == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+    }
+
+    /**
+     * Check that the supplier phone number is not null.
+     */
+    public static void validateSupplierPhone(String supplierPhone) {
+        if (supplierPhone == null) {
+            throw new IllegalArgumentException("Supplier requires a phone number");
+        }
+    }
+
+    /**
+     * Check all the attributes of a complete product.
+     */
+    public static void validateProduct(String productName, Integer productPrice, Integer productQuantity,
+                                       String supplierName, String supplierPhone) {
+        validateName(productName);
+        validatePrice(productPrice);
+        validateQuantity(productQuantity);
+        validateSupplierName(supplierName);
+        validateSupplierPhone(supplierPhone);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.inventoryappr.core;
+
+/**
+ * {@link QuantityBuckets} sorts the product quantities into buckets by their order of magnitude,
+ * which the app shows as the colour of the quantity.
+ */
+public final class QuantityBuckets {
+
+    // To prevent someone from accidentally instantiating the buckets class,
+    // make the constructor private.
+    private QuantityBuckets() {}
+
+    /* The buckets: less than 10, 100, 1k, 10k, 100k, 1m items, and everything else */
+    public static final int BUCKET_TO_10 = 0;
+    public static final int BUCKET_TO_100 = 1;
+    public static final int BUCKET_TO_1K = 2;
+    public static final int BUCKET_TO_10K = 3;
+    public static final int BUCKET_TO_100K = 4;
+    public static final int BUCKET_TO_1M = 5;
+    public static final int BUCKET_OTHER = 6;
+
+    /* The number of buckets */
+    public static final int BUCKET_COUNT = 7;
+
+    /* The buckets up to this one are low on stock, their products need to be reordered */
+    public static final int LOW_STOCK_MAX_BUCKET = BUCKET_TO_100;
+
+    /**
+     * @param quantity The product quantity, not negative.
+     * @return the bucket of the quantity.
+     */
+    public static int bucketOf(int quantity) {
+        int bucket = BUCKET_TO_10;
+        for (int limit = 10; quantity >= limit && bucket < BUCKET_OTHER; limit *= 10) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * @param quantityText The product quantity as decimal digits.
+     * @return the bucket of the quantity, which is given by its number of digits.
+     */
+    public static int bucketOf(CharSequence quantityText) {
+        int digits = quantityText.length();
+        return digits <= 1 ? BUCKET_TO_10 : Math.min(digits - 1, BUCKET_OTHER);
+    }
+}
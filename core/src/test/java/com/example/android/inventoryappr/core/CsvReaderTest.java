@@ -0,0 +1,123 @@
+package com.example.android.inventoryappr.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of {@link CsvReader}.
+ */
+public class CsvReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void readsPlainRecords() throws IOException {
+        CsvReader reader = reader("name,price\nApple,100\n");
+        assertArrayEquals(new String[] {"name", "price"}, reader.readRecord());
+        assertArrayEquals(new String[] {"Apple", "100"}, reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void readsLastRecordWithoutLineBreak() throws IOException {
+        CsvReader reader = reader("a,b\nc,d");
+        assertArrayEquals(new String[] {"a", "b"}, reader.readRecord());
+        assertArrayEquals(new String[] {"c", "d"}, reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void keepsEmptyFields() throws IOException {
+        CsvReader reader = reader(",a,,\n");
+        assertArrayEquals(new String[] {"", "a", "", ""}, reader.readRecord());
+    }
+
+    @Test
+    public void readsSeparatorsInQuotedFields() throws IOException {
+        CsvReader reader = reader("\"Apple, red\",100\n");
+        assertArrayEquals(new String[] {"Apple, red", "100"}, reader.readRecord());
+    }
+
+    @Test
+    public void readsEscapedQuotes() throws IOException {
+        CsvReader reader = reader("\"12\"\" pipe\",\"\"\"\"\n");
+        assertArrayEquals(new String[] {"12\" pipe", "\""}, reader.readRecord());
+    }
+
+    @Test
+    public void readsLineBreaksInQuotedFields() throws IOException {
+        CsvReader reader = reader("\"first\nsecond\",a\nb,c\n");
+        assertArrayEquals(new String[] {"first\nsecond", "a"}, reader.readRecord());
+        assertEquals(1, reader.getRecordLineNumber());
+        assertArrayEquals(new String[] {"b", "c"}, reader.readRecord());
+        assertEquals(3, reader.getRecordLineNumber());
+    }
+
+    @Test
+    public void readsCrlfLineBreaks() throws IOException {
+        CsvReader reader = reader("a,b\r\n\"c\",d\r\n");
+        assertArrayEquals(new String[] {"a", "b"}, reader.readRecord());
+        assertArrayEquals(new String[] {"c", "d"}, reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void skipsBlankLinesAndByteOrderMark() throws IOException {
+        CsvReader reader = reader("\uFEFFa\n\n\r\nb\n");
+        assertArrayEquals(new String[] {"a"}, reader.readRecord());
+        assertArrayEquals(new String[] {"b"}, reader.readRecord());
+        assertEquals(4, reader.getRecordLineNumber());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void failsOnUnterminatedQuote() throws IOException {
+        CsvReader reader = reader("a,b\n\"c,d\ne\n");
+        assertArrayEquals(new String[] {"a", "b"}, reader.readRecord());
+        try {
+            reader.readRecord();
+            fail("An unterminated quoted field was read");
+        } catch (IOException expected) {
+            // The record starts at line 2
+            assertEquals(2, reader.getRecordLineNumber());
+        }
+    }
+
+    @Test
+    public void readsRecordsAcrossBufferBoundaries() throws IOException {
+        // Longer than the buffers, with two byte chars that don't line up with them
+        char[] chars = new char[150 * 1000];
+        Arrays.fill(chars, 'é');
+        String longField = new String(chars);
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            csv.append('"').append(longField).append("\",").append(i).append('\n');
+        }
+        CsvReader reader = reader(csv.toString());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(new String[] {longField, String.valueOf(i)}, reader.readRecord());
+        }
+        assertNull(reader.readRecord());
+        assertEquals(csv.toString().getBytes(UTF_8).length, reader.getBytesRead());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnMalformedText() throws IOException {
+        CsvReader reader = new CsvReader(Channels.newChannel(new ByteArrayInputStream(new byte[] {'a', (byte) 0xFF, '\n'})));
+        reader.readRecord();
+    }
+
+    private static CsvReader reader(String csv) {
+        return new CsvReader(Channels.newChannel(new ByteArrayInputStream(csv.getBytes(UTF_8))));
+    }
+}
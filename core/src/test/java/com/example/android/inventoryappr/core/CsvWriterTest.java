@@ -0,0 +1,55 @@
+package com.example.android.inventoryappr.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests of {@link CsvWriter}, including reading its output back with {@link CsvReader}.
+ */
+public class CsvWriterTest {
+
+    @Test
+    public void quotesOnlyWhenNeeded() throws IOException {
+        StringWriter output = new StringWriter();
+        CsvWriter writer = new CsvWriter(output);
+        writer.writeRecord("Apple", "red, green", "12\" pipe", " padded", "");
+        writer.writeField(100);
+        writer.writeField((CharSequence) null);
+        writer.endRecord();
+        writer.flush();
+        assertEquals("Apple,\"red, green\",\"12\"\" pipe\",\" padded\",\n100,\n", output.toString());
+    }
+
+    @Test
+    public void writtenRecordsReadBack() throws IOException {
+        String[][] records = {
+                {"_id", "prod_name", "prod_price", "prod_quantity", "supplier_name", "supplier_phone"},
+                {"1", "Apple, red", "100", "5", "Fruit \"Co\"", "+1 555 0100"},
+                {"2", "Multi\nline", "0", "0", "Windows\r\nline", ""},
+                {"3", " spaces ", "7", "1", "Épicerie", "\""},
+                {"4", "", "", "", "", ""}
+        };
+        StringWriter output = new StringWriter();
+        CsvWriter writer = new CsvWriter(output);
+        for (String[] record : records) {
+            writer.writeRecord(record);
+        }
+        writer.close();
+
+        CsvReader reader = new CsvReader(Channels.newChannel(
+                new ByteArrayInputStream(output.toString().getBytes(Charset.forName("UTF-8")))));
+        for (String[] record : records) {
+            assertArrayEquals(record, reader.readRecord());
+        }
+        assertNull(reader.readRecord());
+    }
+}